@@ -0,0 +1,180 @@
+package edu.kit.kastel.vads.compiler;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/// An on-disk cache of compiled programs, shared by all compiler instances that use the same directory.
+///
+/// An entry is a directory named by the SHA-256 of the source, the compiler version and the options that
+/// change the output, see [#compilerVersion()] for what makes the version change. It holds the executable and,
+/// if one was written, the assembly file. Entries are built in a temporary directory and renamed into place,
+/// so other instances see either the complete entry or none. A hit touches the entry, and when the cache grows
+/// over its size the least recently used entries are deleted. An entry that disappears while it is read is a miss.
+public class CompilationCache {
+    private static final String EXECUTABLE = "program";
+    private static final String ASSEMBLY = "program.s";
+
+    private final Path directory;
+    private final long maxSize;
+    private final String compilerVersion;
+
+    public CompilationCache(Path directory, long maxSize, String compilerVersion) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.compilerVersion = compilerVersion;
+    }
+
+    /// {@return the key of the source compiled with the options}
+    public String key(byte[] source, String options) {
+        MessageDigest digest = sha256();
+        digest.update(source);
+        // separators keep the parts from running into each other
+        digest.update(("\0" + this.compilerVersion + "\0" + options).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /// Copies the cached executable (and assembly file, if any) of the key to the output
+    ///
+    /// @return whether the key was cached
+    public boolean restore(String key, Path output) throws IOException {
+        Path entry = this.directory.resolve(key);
+        try {
+            Path assembly = entry.resolve(ASSEMBLY);
+            if (Files.exists(assembly)) {
+                Files.copy(assembly, Path.of(output + ".s"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.copy(entry.resolve(EXECUTABLE), output, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /// Adds the executable (and the assembly file it was built from, if any) under the key and evicts old entries
+    public void store(String key, Path executable, @Nullable Path assembly) throws IOException {
+        Files.createDirectories(this.directory);
+        Path temporary = Files.createTempDirectory(this.directory, key + ".tmp");
+        try {
+            if (assembly != null) {
+                Files.copy(assembly, temporary.resolve(ASSEMBLY));
+            }
+            Files.copy(executable, temporary.resolve(EXECUTABLE), StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(temporary, this.directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileSystemException e) {
+            // Another instance stored the same program first. An atomic move reports the existing entry as a
+            // plain FileSystemException ("Directory not empty"), not as one of its subclasses.
+            if (!Files.isDirectory(this.directory.resolve(key))) {
+                throw e;
+            }
+        } finally {
+            deleteRecursively(temporary);
+        }
+        evict();
+    }
+
+    private void evict() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long size = 0;
+        try (Stream<Path> paths = Files.list(this.directory)) {
+            for (Path path : paths.toList()) {
+                if (path.getFileName().toString().contains(".tmp")) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(path, Files.getLastModifiedTime(path), sizeOf(path));
+                    entries.add(entry);
+                    size += entry.size();
+                } catch (NoSuchFileException e) {
+                    // evicted by another instance
+                }
+            }
+        }
+        entries.sort(Comparator.comparing(Entry::lastUsed));
+        for (Entry entry : entries) {
+            if (size <= this.maxSize) {
+                break;
+            }
+            deleteRecursively(entry.path());
+            size -= entry.size();
+        }
+    }
+
+    private static long sizeOf(Path entry) throws IOException {
+        long size = 0;
+        try (Stream<Path> files = Files.list(entry)) {
+            for (Path file : files.toList()) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            // already deleted
+        }
+    }
+
+    /// {@return a version that changes whenever the compiler is rebuilt, or `null` if there is none}
+    ///
+    /// This is the hash of the jar or class directory the compiler was loaded from. A compiler in a runtime
+    /// image falls back to its implementation version, unless that is a snapshot, which doesn't change between
+    /// builds.
+    public static @Nullable String compilerVersion() {
+        try {
+            Path location = Path.of(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return contentHash(location);
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            // not loaded from the file system
+        }
+        String version = CompilationCache.class.getPackage().getImplementationVersion();
+        return version == null || version.endsWith("-SNAPSHOT") ? null : version;
+    }
+
+    // the SHA-256 of a jar, or of the names and contents of the files in a class directory
+    static String contentHash(Path codeSource) throws IOException {
+        MessageDigest digest = sha256();
+        if (Files.isDirectory(codeSource)) {
+            try (Stream<Path> files = Files.walk(codeSource)) {
+                for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                    byte[] content = Files.readAllBytes(file);
+                    String header = codeSource.relativize(file) + "\0" + content.length + "\0";
+                    digest.update(header.getBytes(StandardCharsets.UTF_8));
+                    digest.update(content);
+                }
+            }
+        } else {
+            digest.update(Files.readAllBytes(codeSource));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Entry(Path path, FileTime lastUsed, long size) {
+    }
+}
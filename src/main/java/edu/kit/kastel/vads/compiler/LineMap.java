@@ -0,0 +1,48 @@
+package edu.kit.kastel.vads.compiler;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.Arrays;
+
+/// Turns offsets into a source into line and column positions.
+///
+/// Every `\n` and every `\r` starts a new line, like in the lexer. The line starts are only searched for the
+/// first time a position is asked for, so sources without errors never pay for them.
+public final class LineMap {
+    private final String source;
+    private int @Nullable [] lineStarts;
+
+    public LineMap(String source) {
+        this.source = source;
+    }
+
+    public Position position(int offset) {
+        int[] starts = lineStarts();
+        int line = Arrays.binarySearch(starts, offset);
+        if (line < 0) {
+            // the insertion point is the first line starting after the offset
+            line = -line - 2;
+        }
+        return new Position.SimplePosition(line, offset - starts[line]);
+    }
+
+    private int[] lineStarts() {
+        int[] lineStarts = this.lineStarts;
+        if (lineStarts == null) {
+            int[] starts = new int[16];
+            int count = 1;
+            for (int i = 0; i < this.source.length(); i++) {
+                char c = this.source.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = i + 1;
+                }
+            }
+            lineStarts = Arrays.copyOf(starts, count);
+            this.lineStarts = lineStarts;
+        }
+        return lineStarts;
+    }
+}
@@ -1,8 +1,14 @@
 package edu.kit.kastel.vads.compiler;
 
 import edu.kit.kastel.vads.compiler.backend.aasm.CodeGenerator;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineFunction;
+import edu.kit.kastel.vads.compiler.backend.regalloc.AllocationStrategy;
+import edu.kit.kastel.vads.compiler.backend.x86.ElfWriter;
+import edu.kit.kastel.vads.compiler.backend.x86.NativeRunner;
+import edu.kit.kastel.vads.compiler.backend.x86.X86_64Encoder;
 import edu.kit.kastel.vads.compiler.ir.IrGraph;
 import edu.kit.kastel.vads.compiler.ir.SsaTranslation;
+import edu.kit.kastel.vads.compiler.ir.interpret.IrInterpreter;
 import edu.kit.kastel.vads.compiler.ir.optimize.LocalValueNumbering;
 import edu.kit.kastel.vads.compiler.ir.util.GraphVizPrinter;
 import edu.kit.kastel.vads.compiler.ir.util.YCompPrinter;
@@ -10,17 +16,17 @@ import edu.kit.kastel.vads.compiler.lexer.Lexer;
 import edu.kit.kastel.vads.compiler.parser.ParseException;
 import edu.kit.kastel.vads.compiler.parser.Parser;
 import edu.kit.kastel.vads.compiler.parser.TokenSource;
-import edu.kit.kastel.vads.compiler.parser.ast.FunctionTree;
 import edu.kit.kastel.vads.compiler.parser.ast.ProgramTree;
 import edu.kit.kastel.vads.compiler.semantic.SemanticAnalysis;
 import edu.kit.kastel.vads.compiler.semantic.SemanticException;
+import org.jspecify.annotations.Nullable;
 
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
 
 import static edu.kit.kastel.vads.compiler.parser.Printer.print;
@@ -33,6 +39,21 @@ public class Main {
         }
         Path input = Path.of(args[0]);
         Path output = Path.of(args[1]);
+        int optimizationLevel = optimizationLevel();
+        AllocationStrategy allocationStrategy = allocationStrategy(optimizationLevel);
+        boolean useGcc = "gcc".equals(System.getenv("ASSEMBLER")) || "gcc".equals(System.getProperty("assembler"));
+
+        // Reuse an earlier compilation of the same source (COMPILE_CACHE=<dir> or -DcompileCache=<dir>)
+        @Nullable CompilationCache cache = compilationCache();
+        @Nullable String cacheKey = null;
+        if (cache != null && System.getenv("RUN") == null && System.getProperty("run") == null) {
+            cacheKey = cache.key(Files.readAllBytes(input),
+                    "-O" + optimizationLevel + " " + allocationStrategy + " " + (useGcc ? "gcc" : "builtin"));
+            if (cache.restore(cacheKey, output)) {
+                return;
+            }
+        }
+
         ProgramTree program = lexAndParse(input);
         try {
             new SemanticAnalysis(program).analyze();
@@ -45,11 +66,12 @@ public class Main {
         // Print program tree
         System.out.println(print(program));
 
-        List<IrGraph> graphs = new ArrayList<>();
-        for (FunctionTree function : program.topLevelTrees()) {
-            SsaTranslation translation = new SsaTranslation(function, new LocalValueNumbering());
-            graphs.add(translation.translate());
-        }
+        // Nodes don't keep their source spans with DEBUG_INFO=none or -DdebugInfo=none
+        boolean debugInfo = !"none".equals(System.getenv("DEBUG_INFO")) && !"none".equals(System.getProperty("debugInfo"));
+        // Functions are translated in parallel, the graphs stay in program order
+        List<IrGraph> graphs = program.topLevelTrees().parallelStream()
+                .map(function -> new SsaTranslation(function, new LocalValueNumbering(), debugInfo).translate())
+                .toList();
 
         if ("vcg".equals(System.getenv("DUMP_GRAPHS")) || "vcg".equals(System.getProperty("dumpGraphs"))) {
             Path tmp = output.toAbsolutePath().resolveSibling("graphs");
@@ -59,6 +81,12 @@ public class Main {
             }
         }
 
+        // Interpret the graph of main instead of compiling it (RUN=interpret or -Drun=interpret)
+        if ("interpret".equals(System.getenv("RUN")) || "interpret".equals(System.getProperty("run"))) {
+            IrGraph main = graphs.stream().filter(graph -> graph.name().equals("main")).findFirst().orElseThrow();
+            System.exit(new IrInterpreter(main).run().exitStatus());
+        }
+
         //TODO: Remove Graphviz for jump debugging
         String yCompOutputPath = "./test-code/run-output.vcg";
         try (FileWriter fileWriter = new FileWriter(yCompOutputPath);
@@ -77,7 +105,8 @@ public class Main {
             e.printStackTrace();
         }
 
-        String assemblyCode = new CodeGenerator().generateCode(graphs);
+        CodeGenerator codeGenerator = new CodeGenerator(allocationStrategy);
+        List<MachineFunction> functions = codeGenerator.lower(graphs);
 
         // Second vgc print after transforming phi predecessors
         String yCompOutputPathAfter = "./test-code/run-output-after.vcg";
@@ -98,10 +127,37 @@ public class Main {
         }
 
 
+        // Run the program in this JVM instead of writing it (RUN=inprocess or -Drun=inprocess)
+        if ("inprocess".equals(System.getenv("RUN")) || "inprocess".equals(System.getProperty("run"))) {
+            System.exit(new NativeRunner().run(functions));
+        }
+
+        // The executable is encoded and written directly, unless gcc is asked for (ASSEMBLER=gcc or -Dassembler=gcc)
+        if (!useGcc) {
+            try {
+                new ElfWriter().write(output, new X86_64Encoder().encode(functions));
+                if (cache != null && cacheKey != null) {
+                    cache.store(cacheKey, output, null);
+                }
+                return;
+            } catch (IllegalStateException e) {
+                System.err.println("Can't encode the program, falling back to gcc: " + e.getMessage());
+            }
+        }
+        assembleWithGcc(codeGenerator, functions, output);
+        if (cache != null && cacheKey != null && Files.exists(output)) {
+            cache.store(cacheKey, output, Path.of(output + ".s"));
+        }
+    }
+
+    private static void assembleWithGcc(CodeGenerator codeGenerator, List<MachineFunction> functions, Path output)
+            throws IOException, InterruptedException {
         Path assemblyFile = Path.of(output + ".s");
 
-        // Write assembly code to the .s file
-        Files.writeString(assemblyFile, assemblyCode);
+        // Write assembly code to the .s file, one function at a time
+        try (Writer writer = Files.newBufferedWriter(assemblyFile)) {
+            codeGenerator.emitAssembly(functions, writer);
+        }
 
         ProcessBuilder processBuilder = new ProcessBuilder(
                 "gcc",
@@ -109,8 +165,79 @@ public class Main {
                 "-o",
                 output.toString()        // Output executable
         );
-        Process process = processBuilder.start();
-        process.waitFor();
+        // gcc reports what it rejects on our stderr, a failed build must not look like a successful compilation
+        Process process = processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        int status = process.waitFor();
+        if (status != 0) {
+            System.err.println("gcc failed with exit code " + status);
+            System.exit(1);
+        }
+    }
+
+    // -O<level> as OPT_LEVEL or -DoptLevel, the compiler is always called with exactly the input and output file
+    private static int optimizationLevel() {
+        String level = System.getenv("OPT_LEVEL");
+        if (level == null) {
+            level = System.getProperty("optLevel", "1");
+        }
+        try {
+            return Integer.parseInt(level.startsWith("-O") ? level.substring(2) : level);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid optimization level: " + level);
+            System.exit(3);
+            throw new AssertionError("unreachable");
+        }
+    }
+
+    // REG_ALLOC or -DregAlloc (chordal, irc or pbqp) overrides the allocator of the optimization level
+    private static AllocationStrategy allocationStrategy(int optimizationLevel) {
+        String allocator = System.getenv("REG_ALLOC");
+        if (allocator == null) {
+            allocator = System.getProperty("regAlloc");
+        }
+        if (allocator == null) {
+            return AllocationStrategy.forOptimizationLevel(optimizationLevel);
+        }
+        return switch (allocator) {
+            case "chordal" -> AllocationStrategy.CHORDAL;
+            case "irc" -> AllocationStrategy.ITERATED_COALESCING;
+            case "pbqp" -> AllocationStrategy.PBQP;
+            default -> {
+                System.err.println("Invalid register allocator: " + allocator);
+                System.exit(3);
+                throw new AssertionError("unreachable");
+            }
+        };
+    }
+
+    // COMPILE_CACHE or -DcompileCache names the cache directory, COMPILE_CACHE_SIZE or -DcompileCacheSize its size in MiB
+    private static @Nullable CompilationCache compilationCache() {
+        String directory = System.getenv("COMPILE_CACHE");
+        if (directory == null) {
+            directory = System.getProperty("compileCache");
+        }
+        if (directory == null) {
+            return null;
+        }
+        @Nullable String version = CompilationCache.compilerVersion();
+        if (version == null) {
+            // without a version, programs compiled by different builds of the compiler would share entries
+            System.err.println("Compile cache disabled: the compiler version is unknown");
+            return null;
+        }
+        String size = System.getenv("COMPILE_CACHE_SIZE");
+        if (size == null) {
+            size = System.getProperty("compileCacheSize", "256");
+        }
+        try {
+            return new CompilationCache(Path.of(directory), Long.parseLong(size) << 20, version);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid compile cache size: " + size);
+            System.exit(3);
+            throw new AssertionError("unreachable");
+        }
     }
 
     private static ProgramTree lexAndParse(Path input) throws IOException {
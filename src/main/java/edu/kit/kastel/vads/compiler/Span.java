@@ -17,4 +17,30 @@ public sealed interface Span {
             return "[" + start() + "|" + end() + "]";
         }
     }
+
+    /// A span of source offsets, the positions are only computed when they are asked for
+    record OffsetSpan(LineMap lines, int startOffset, int endOffset) implements Span {
+        @Override
+        public Position start() {
+            return lines().position(startOffset());
+        }
+
+        @Override
+        public Position end() {
+            return lines().position(endOffset());
+        }
+
+        @Override
+        public Span merge(Span later) {
+            if (later instanceof OffsetSpan(LineMap laterLines, _, int laterEnd) && laterLines == lines()) {
+                return new OffsetSpan(lines(), startOffset(), laterEnd);
+            }
+            return new SimpleSpan(start(), later.end());
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start() + "|" + end() + "]";
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package edu.kit.kastel.vads.compiler.backend.aasm;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/// Writes allocated machine code in AT&T syntax.
+///
+/// Each function is formatted into a buffer that is reused for the next one and then written to the output,
+/// so the text held in memory is bounded by the largest function, not by the program.
+public class AssemblyEmitter {
+    private final StringBuilder builder = new StringBuilder();
+    private final Writer output;
+
+    public AssemblyEmitter(Writer output) {
+        this.output = output;
+    }
+
+    public void emit(MachineFunction function) throws IOException {
+        builder.append("_").append(function.name()).append(":\n");
+        for (MachineBasicBlock block : function.blocks()) {
+            // Nothing jumps to the entry block, it follows the function label
+            if (block != function.entry()) {
+                builder.append(block.label()).append(":\n");
+            }
+            for (MachineInstruction instruction : block.instructions()) {
+                emit(instruction);
+            }
+        }
+        this.output.append(builder);
+        builder.setLength(0);
+    }
+
+    private void emit(MachineInstruction instruction) {
+        builder.repeat(" ", 2).append(instruction.opcode().mnemonic());
+        if (instruction.condition() != null) {
+            builder.append(instruction.condition().suffix());
+        }
+        for (int i = 0; i < instruction.operands().size(); i++) {
+            builder.append(i == 0 ? " " : ", ").append(operand(instruction, i));
+        }
+        builder.append("\n");
+    }
+
+    private static String operand(MachineInstruction instruction, int index) {
+        return switch (instruction.operand(index)) {
+            case PhysicalRegister register -> register(register, size(instruction, index));
+            case Address address -> address(address);
+            case Immediate immediate -> immediate.toString();
+            case StackSlot slot -> slot.toString();
+            case Label label -> label.toString();
+            case Operand operand -> throw new IllegalStateException("Unallocated operand " + operand);
+        };
+    }
+
+    private static int size(MachineInstruction instruction, int index) {
+        // movzbl reads a byte, setcc writes one
+        if (instruction.opcode() == Opcode.MOVZB && index == 0) {
+            return 1;
+        }
+        // shift counts are read from CL
+        if ((instruction.opcode() == Opcode.SAL || instruction.opcode() == Opcode.SAR) && index == 0) {
+            return 1;
+        }
+        return instruction.opcode().size();
+    }
+
+    private static String register(PhysicalRegister register, int size) {
+        return switch (size) {
+            case 1 -> X86_64PhysicalRegisters.getAssemblyName8(register.register);
+            case 8 -> X86_64PhysicalRegisters.getAssemblyName64(register.register);
+            default -> X86_64PhysicalRegisters.getAssemblyName(register.register);
+        };
+    }
+
+    private static String address(Address address) {
+        // an absolute address, `()` is no valid operand
+        if (address.base() == null && address.index() == null) {
+            return Integer.toString(address.displacement());
+        }
+        StringBuilder result = new StringBuilder();
+        if (address.displacement() != 0 || address.base() == null) {
+            result.append(address.displacement());
+        }
+        result.append("(");
+        if (address.base() != null) {
+            result.append(register((PhysicalRegister) address.base(), 8));
+        }
+        if (address.index() != null) {
+            result.append(", ").append(register((PhysicalRegister) address.index(), 8));
+            if (address.scale() != 1) {
+                result.append(", ").append(address.scale());
+            }
+        }
+        return result.append(")").toString();
+    }
+}
@@ -0,0 +1,46 @@
+package edu.kit.kastel.vads.compiler.backend.aasm;
+
+import edu.kit.kastel.vads.compiler.backend.mir.MachineBasicBlock;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineFunction;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
+
+/// Where the spill area of a function lives relative to the stack pointer.
+///
+/// Slots are addressed relative to `%rsp`, which doesn't move inside the function body, so no frame pointer
+/// is needed. A leaf function with a small spill area keeps it in the red zone below the stack pointer and
+/// doesn't adjust the stack at all. Otherwise the stack pointer is lowered so that it is 16 byte aligned
+/// again: the return address of the call left it 8 bytes off.
+///
+/// @param stackAdjustment bytes subtracted from the stack pointer in the prologue
+/// @param slotBase offset of the spill area relative to the stack pointer after the prologue
+public record FrameLayout(int stackAdjustment, int slotBase) {
+    /// Bytes below the stack pointer that signal handlers leave untouched (System V AMD64 ABI)
+    public static final int RED_ZONE = 128;
+    public static final int STACK_ALIGNMENT = 16;
+    private static final int RETURN_ADDRESS = 8;
+
+    public static FrameLayout of(MachineFunction function) {
+        int spillSize = function.frameSize();
+        if (spillSize == 0) {
+            return new FrameLayout(0, 0);
+        }
+        if (isLeaf(function) && spillSize <= RED_ZONE) {
+            return new FrameLayout(0, -spillSize);
+        }
+        int frame = spillSize + RETURN_ADDRESS;
+        int aligned = (frame + STACK_ALIGNMENT - 1) / STACK_ALIGNMENT * STACK_ALIGNMENT;
+        return new FrameLayout(aligned - RETURN_ADDRESS, 0);
+    }
+
+    // Nothing in the body may store below the stack pointer, or it would overwrite the red zone
+    private static boolean isLeaf(MachineFunction function) {
+        for (MachineBasicBlock block : function.blocks()) {
+            for (MachineInstruction instruction : block.instructions()) {
+                if (instruction.opcode().writesBelowStackPointer()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+package edu.kit.kastel.vads.compiler.backend.aasm;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64Register;
+
+import java.util.List;
+
+/// Places the spill area of a function according to its [FrameLayout]: moves the stack slots to their final
+/// offsets and inserts the prologue and epilogues that adjust the stack pointer, if any.
+public class FrameLowering {
+
+    public void lower(MachineFunction function) {
+        FrameLayout layout = FrameLayout.of(function);
+        if (layout.slotBase() != 0) {
+            for (MachineBasicBlock block : function.blocks()) {
+                for (MachineInstruction instruction : block.instructions()) {
+                    for (int i = 0; i < instruction.operands().size(); i++) {
+                        if (instruction.operand(i) instanceof StackSlot slot) {
+                            instruction.setOperand(i, new StackSlot(slot.offset() + layout.slotBase()));
+                        }
+                    }
+                }
+            }
+        }
+
+        int stackAdjustment = layout.stackAdjustment();
+        if (stackAdjustment == 0) {
+            return;
+        }
+        PhysicalRegister rsp = X86_64PhysicalRegisters.get(X86_64Register.RSP);
+
+        // Allocate the spill area on the stack
+        function.entry().instructions().addFirst(new MachineInstruction(Opcode.SUBQ, new Immediate(stackAdjustment), rsp));
+
+        for (MachineBasicBlock block : function.blocks()) {
+            List<MachineInstruction> instructions = block.instructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                if (instructions.get(i).opcode() == Opcode.RET) {
+                    instructions.add(i, new MachineInstruction(Opcode.ADDQ, new Immediate(stackAdjustment), rsp));
+                    i++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.backend.mir.Condition;
+import edu.kit.kastel.vads.compiler.backend.mir.Label;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+import edu.kit.kastel.vads.compiler.backend.mir.Operand;
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+import edu.kit.kastel.vads.compiler.ir.node.Block;
+
+/// Gives a [TileEmitter] access to the operands of the tile it emits.
+public interface EmitContext {
+
+    /// {@return the immediate of an IMM leaf, the virtual register of a REG leaf}
+    Operand operand(int leaf);
+
+    /// {@return the virtual register of a REG leaf}
+    Register register(int leaf);
+
+    int constant(int leaf);
+
+    /// {@return the virtual register the tile computes its value into}
+    Register target();
+
+    Label label(Block block);
+
+    void emit(Opcode opcode, Operand... operands);
+
+    void emit(Opcode opcode, Condition condition, Operand... operands);
+}
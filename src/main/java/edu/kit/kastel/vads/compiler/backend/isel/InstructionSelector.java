@@ -0,0 +1,299 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.backend.isel.Pattern.LeafPattern;
+import edu.kit.kastel.vads.compiler.backend.isel.Pattern.NodePattern;
+import edu.kit.kastel.vads.compiler.ir.IrGraph;
+import edu.kit.kastel.vads.compiler.ir.node.*;
+import org.jspecify.annotations.Nullable;
+
+import java.util.*;
+
+import static edu.kit.kastel.vads.compiler.ir.util.NodeSupport.predecessorSkipProj;
+
+/// Bottom-up rewrite system (BURS) instruction selection over the IR graph.
+///
+/// 1. Label: for every node and non-terminal, find the cheapest rule covering the subtree rooted at the node.
+/// 2. Reduce: starting at the control flow nodes and at nodes that have to be in a register anyway,
+///    apply the chosen rules top-down. Leaves of a tile are reduced to the non-terminal the tile reads them as.
+///
+/// The IR is a DAG, not a tree. A node is only covered by the inner pattern of another tile if it has exactly one
+/// user in the same block, all other values are tile boundaries and computed into their own register once.
+public class InstructionSelector {
+    private static final int INFINITE = Integer.MAX_VALUE / 4;
+
+    private final IrGraph graph;
+    private final List<Rule> rules;
+    private final Map<Node, List<Node>> users = new IdentityHashMap<>();
+    private final Map<Node, Label> labels = new IdentityHashMap<>();
+    private final Map<Node, Tile> tiles = new IdentityHashMap<>();
+
+    public InstructionSelector(IrGraph graph) {
+        this(graph, Rules.RULES);
+    }
+
+    public InstructionSelector(IrGraph graph, List<Rule> rules) {
+        this.graph = graph;
+        this.rules = rules;
+    }
+
+    public Selection select() {
+        List<Node> nodes = new ArrayList<>();
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Node> phiOperands = new ArrayDeque<>();
+        collect(this.graph.endBlock(), visited, nodes, phiOperands);
+        while (!phiOperands.isEmpty()) {
+            collect(phiOperands.poll(), visited, nodes, phiOperands);
+        }
+        for (Node node : nodes) {
+            for (int index : valueInputs(node)) {
+                this.users.computeIfAbsent(predecessorSkipProj(node, index), _ -> new ArrayList<>()).add(node);
+            }
+        }
+
+        for (Node node : nodes) {
+            if (isControlFlow(node)) {
+                reduce(node, NonTerminal.STMT);
+            } else if (isForcedRoot(node)) {
+                reduce(node, NonTerminal.REG);
+            } else if (node instanceof Phi phi) {
+                // phi operands are copied into the phi register, constants as immediates
+                for (int index : valueInputs(phi)) {
+                    Node operand = predecessorSkipProj(phi, index);
+                    if (!isPreexisting(operand) && !isConstant(operand)) {
+                        reduce(operand, NonTerminal.REG);
+                    }
+                }
+            }
+        }
+        return new Selection(this.tiles, nodes);
+    }
+
+    // Post order over the inputs. Phi operands are values of the previous iteration (or another predecessor),
+    // not inputs that have to be computed first, so they are collected afterwards to keep loops in order.
+    private void collect(Node node, Set<Node> visited, List<Node> nodes, Deque<Node> phiOperands) {
+        if (!visited.add(node)) {
+            return;
+        }
+        if (node instanceof Phi) {
+            phiOperands.addAll(node.predecessors());
+        } else {
+            for (Node predecessor : node.predecessors()) {
+                collect(predecessor, visited, nodes, phiOperands);
+            }
+        }
+        collect(node.block(), visited, nodes, phiOperands);
+        nodes.add(node);
+    }
+
+    private void reduce(Node node, NonTerminal nonTerminal) {
+        if (this.tiles.containsKey(node)) {
+            return;
+        }
+        Match match = label(node).get(nonTerminal);
+        if (match == null) {
+            throw new IllegalStateException("no rule covers " + node + " as " + nonTerminal);
+        }
+        this.tiles.put(node, new Tile(node, match.rule(), match.covered(), match.leaves()));
+        for (Tile.Leaf leaf : match.leaves()) {
+            if (leaf.nonTerminal() == NonTerminal.REG && !isPreexisting(leaf.node()) && !isForcedRoot(leaf.node())) {
+                reduce(leaf.node(), NonTerminal.REG);
+            }
+        }
+    }
+
+    private Label label(Node node) {
+        Label label = this.labels.get(node);
+        if (label != null) {
+            return label;
+        }
+        label = new Label();
+        for (Rule rule : this.rules) {
+            Binding binding = new Binding();
+            int cost = match(rule.pattern(), node, node, binding);
+            if (cost >= INFINITE) {
+                continue;
+            }
+            cost += rule.cost();
+            Match current = label.get(rule.result());
+            if (current == null || cost < current.cost()) {
+                label.put(rule.result(), new Match(rule, cost, List.copyOf(binding.covered), List.copyOf(binding.leaves)));
+            }
+        }
+        this.labels.put(node, label);
+        return label;
+    }
+
+    // Cost of the leaves matched by pattern at node, INFINITE if it doesn't match
+    private int match(Pattern pattern, Node node, Node root, Binding binding) {
+        return switch (pattern) {
+            case LeafPattern leaf -> {
+                if (leaf.nonTerminal() == NonTerminal.IMM && !leaf.constant().test(constantOr(node, 0))) {
+                    yield INFINITE;
+                }
+                NonTerminal nonTerminal = leaf.nonTerminal();
+                if (nonTerminal == NonTerminal.ANY) {
+                    nonTerminal = leafCost(node, NonTerminal.IMM) == 0 ? NonTerminal.IMM : NonTerminal.REG;
+                }
+                // a rule can't be its own leaf, except for chain rules from a different non-terminal
+                if (node == root && nonTerminal == NonTerminal.REG) {
+                    yield INFINITE;
+                }
+                binding.leaves.add(new Tile.Leaf(node, nonTerminal));
+                yield leafCost(node, nonTerminal);
+            }
+            case NodePattern inner -> {
+                if (!inner.types().contains(node.getClass())) {
+                    yield INFINITE;
+                }
+                if (node != root && !canCover(node, root)) {
+                    yield INFINITE;
+                }
+                int[] inputs = valueInputs(node);
+                if (inputs.length != inner.children().size()) {
+                    yield INFINITE;
+                }
+                int coveredMark = binding.covered.size();
+                int leavesMark = binding.leaves.size();
+                binding.covered.add(node);
+                int cost = matchChildren(inner, node, root, binding, inputs);
+                if (inner.commutative()) {
+                    Binding swapped = new Binding();
+                    int[] reversed = {inputs[1], inputs[0]};
+                    int swappedCost = matchChildren(inner, node, root, swapped, reversed);
+                    if (swappedCost < cost) {
+                        binding.covered.subList(coveredMark + 1, binding.covered.size()).clear();
+                        binding.leaves.subList(leavesMark, binding.leaves.size()).clear();
+                        binding.covered.addAll(swapped.covered);
+                        binding.leaves.addAll(swapped.leaves);
+                        cost = swappedCost;
+                    }
+                }
+                yield cost;
+            }
+        };
+    }
+
+    private int matchChildren(NodePattern pattern, Node node, Node root, Binding binding, int[] inputs) {
+        int cost = 0;
+        for (int i = 0; i < inputs.length && cost < INFINITE; i++) {
+            cost += match(pattern.children().get(i), predecessorSkipProj(node, inputs[i]), root, binding);
+        }
+        return Math.min(cost, INFINITE);
+    }
+
+    private int leafCost(Node node, NonTerminal nonTerminal) {
+        return switch (nonTerminal) {
+            case IMM -> isConstant(node) ? 0 : INFINITE;
+            // computed by its own tile, which is paid for once and not by every user
+            case REG -> {
+                if (isPreexisting(node) || isForcedRoot(node)) {
+                    yield 0;
+                }
+                Match match = label(node).get(NonTerminal.REG);
+                yield match == null ? INFINITE : match.cost();
+            }
+            case ANY -> Math.min(leafCost(node, NonTerminal.IMM), leafCost(node, NonTerminal.REG));
+            case STMT -> INFINITE;
+        };
+    }
+
+    // Inner nodes of a pattern are not computed on their own, so no one else may need their value
+    private boolean canCover(Node node, Node root) {
+        return !isForcedRoot(node) && !isConstant(node) && !isPreexisting(node) && !isControlFlow(node)
+                && node.block() == root.block();
+    }
+
+    private boolean isForcedRoot(Node node) {
+        if (isConstant(node) || isPreexisting(node) || !isValue(node)) {
+            return false;
+        }
+        // side effects have to be emitted even if the result is unused
+        if (node instanceof DivNode || node instanceof ModNode) {
+            return true;
+        }
+        List<Node> nodeUsers = this.users.getOrDefault(node, List.of());
+        return nodeUsers.size() != 1
+                || nodeUsers.getFirst() instanceof Phi
+                || nodeUsers.getFirst().block() != node.block();
+    }
+
+    // Values that get a register without any code of their own
+    private static boolean isPreexisting(Node node) {
+        return node instanceof Phi || node instanceof UndefinedNode;
+    }
+
+    private static boolean isValue(Node node) {
+        return node instanceof BinaryOperationNode || isConstant(node) || isPreexisting(node);
+    }
+
+    static boolean isControlFlow(Node node) {
+        return node instanceof ReturnNode || node instanceof JumpNode || node instanceof CondJumpNode;
+    }
+
+    static boolean isConstant(Node node) {
+        return node instanceof ConstIntNode || node instanceof ConstBoolNode;
+    }
+
+    private static int constantOr(Node node, int otherwise) {
+        return switch (node) {
+            case ConstIntNode c -> c.value();
+            case ConstBoolNode b -> b.value() ? 1 : 0;
+            default -> otherwise;
+        };
+    }
+
+    // Predecessor indices that are data inputs, side effect edges are ignored
+    private static int[] valueInputs(Node node) {
+        return switch (node) {
+            case BinaryOperationNode _ -> new int[]{BinaryOperationNode.LEFT, BinaryOperationNode.RIGHT};
+            case ReturnNode _ -> new int[]{ReturnNode.RESULT};
+            case CondJumpNode _ -> new int[]{0};
+            case Phi phi when !isSideEffectPhi(phi) -> {
+                int[] inputs = new int[phi.predecessors().size()];
+                for (int i = 0; i < inputs.length; i++) {
+                    inputs[i] = i;
+                }
+                yield inputs;
+            }
+            default -> new int[0];
+        };
+    }
+
+    // The side effect phi of a loop can also merge the side effect phis of earlier loops or branches
+    static boolean isSideEffectPhi(Phi phi) {
+        return isSideEffectPhi(phi, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static boolean isSideEffectPhi(Phi phi, Set<Phi> visited) {
+        if (!visited.add(phi)) {
+            return false;
+        }
+        for (Node predecessor : phi.predecessors()) {
+            if (predecessor instanceof ProjNode proj && proj.projectionInfo() == ProjNode.SimpleProjectionInfo.SIDE_EFFECT
+                    || predecessor instanceof Phi operand && isSideEffectPhi(operand, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record Match(Rule rule, int cost, List<Node> covered, List<Tile.Leaf> leaves) {
+    }
+
+    private static final class Binding {
+        private final List<Node> covered = new ArrayList<>();
+        private final List<Tile.Leaf> leaves = new ArrayList<>();
+    }
+
+    private static final class Label {
+        private final EnumMap<NonTerminal, Match> matches = new EnumMap<>(NonTerminal.class);
+
+        @Nullable Match get(NonTerminal nonTerminal) {
+            return this.matches.get(nonTerminal);
+        }
+
+        void put(NonTerminal nonTerminal, Match match) {
+            this.matches.put(nonTerminal, match);
+        }
+    }
+}
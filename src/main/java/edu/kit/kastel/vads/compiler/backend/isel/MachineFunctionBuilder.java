@@ -0,0 +1,190 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.AasmRegisterAllocator;
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+import edu.kit.kastel.vads.compiler.ir.IrGraph;
+import edu.kit.kastel.vads.compiler.ir.node.*;
+
+import java.util.*;
+
+import static edu.kit.kastel.vads.compiler.ir.util.NodeSupport.predecessorSkipProj;
+
+/// Lowers the selected tiles of a graph into a [MachineFunction] over virtual registers.
+///
+/// Every IR block becomes a machine block, in reverse post order of the control flow graph.
+/// Inside a block the tiles are emitted in input order, followed by the tile of the jump or return that ends the block.
+///
+/// SSA is left on the edges: the copies into the phis of a block are a [ParallelCopy] per incoming edge, placed on
+/// the edge once all blocks exist. Critical edges are split for them, so a copy never runs on a path to another
+/// block, where the old value of the phi may still be live (the lost copy problem). Sequentializing the copies
+/// orders swaps of phis correctly (the swap problem), the register allocator then coalesces most of the moves.
+public class MachineFunctionBuilder {
+    private final IrGraph graph;
+    private final Selection selection;
+    private final Map<Node, Register> registers;
+    private final AasmRegisterAllocator allocator;
+    private final Map<Block, MachineBasicBlock> blocks = new IdentityHashMap<>();
+    private final Map<Block, Node> terminators = new IdentityHashMap<>();
+    private final Map<Block, List<Node>> blockNodes = new IdentityHashMap<>();
+    private final Map<Block, List<Phi>> phis = new IdentityHashMap<>();
+
+    public MachineFunctionBuilder(IrGraph graph, Selection selection, Map<Node, Register> registers,
+                                  AasmRegisterAllocator allocator) {
+        this.graph = graph;
+        this.selection = selection;
+        this.registers = registers;
+        this.allocator = allocator;
+    }
+
+    public MachineFunction build() {
+        for (Node node : this.selection.nodes()) {
+            if (node instanceof Block) {
+                continue;
+            }
+            if (node instanceof Phi phi && this.registers.containsKey(phi)) {
+                this.phis.computeIfAbsent(phi.block(), _ -> new ArrayList<>()).add(phi);
+            } else if (InstructionSelector.isControlFlow(node)) {
+                this.terminators.put(node.block(), node);
+            } else if (this.selection.tile(node) != null) {
+                this.blockNodes.computeIfAbsent(node.block(), _ -> new ArrayList<>()).add(node);
+            }
+        }
+
+        MachineFunction function = new MachineFunction(this.graph.name());
+        List<Block> order = reversePostOrder();
+        for (Block block : order) {
+            MachineBasicBlock machineBlock = new MachineBasicBlock(new Label(block.blockName()));
+            this.blocks.put(block, machineBlock);
+            function.blocks().add(machineBlock);
+        }
+        for (Block block : order) {
+            MachineBasicBlock machineBlock = this.blocks.get(block);
+            for (Node node : this.blockNodes.getOrDefault(block, List.of())) {
+                emitTile(node, machineBlock);
+            }
+            Node terminator = this.terminators.get(block);
+            for (Block successor : successors(terminator)) {
+                machineBlock.addSuccessor(this.blocks.get(successor));
+            }
+            emitTile(terminator, machineBlock);
+        }
+        for (Block block : order) {
+            Node terminator = this.terminators.get(block);
+            for (Block successor : new LinkedHashSet<>(successors(terminator))) {
+                ParallelCopy copy = phiCopies(terminator, successor);
+                function.insertOnEdge(this.blocks.get(block), this.blocks.get(successor),
+                        copy.sequentialize(this.allocator::newRegister));
+            }
+        }
+        return function;
+    }
+
+    private void emitTile(Node node, MachineBasicBlock block) {
+        Tile tile = Objects.requireNonNull(this.selection.tile(node), () -> "no tile for " + node);
+        tile.rule().emitter().emit(tile, new Context(tile, block));
+    }
+
+    private ParallelCopy phiCopies(Node terminator, Block successor) {
+        ParallelCopy copy = new ParallelCopy();
+        for (Phi phi : this.phis.getOrDefault(successor, List.of())) {
+            for (int i = 0; i < successor.predecessors().size(); i++) {
+                if (successor.predecessor(i) == terminator) {
+                    copy.add(valueOf(predecessorSkipProj(phi, i)), this.registers.get(phi));
+                }
+            }
+        }
+        return copy;
+    }
+
+    private Operand valueOf(Node node) {
+        Register register = this.registers.get(node);
+        if (register != null) {
+            return register;
+        }
+        return new Immediate(switch (node) {
+            case ConstIntNode c -> c.value();
+            case ConstBoolNode b -> b.value() ? 1 : 0;
+            default -> throw new IllegalStateException("no register for " + node);
+        });
+    }
+
+    private List<Block> reversePostOrder() {
+        List<Block> postOrder = new ArrayList<>();
+        visit(this.graph.startBlock(), Collections.newSetFromMap(new IdentityHashMap<>()), postOrder);
+        return postOrder.reversed();
+    }
+
+    private void visit(Block block, Set<Block> visited, List<Block> postOrder) {
+        if (!visited.add(block)) {
+            return;
+        }
+        // visit the false target first, so that the true target comes first in reverse post order
+        for (Block successor : successors(this.terminators.get(block)).reversed()) {
+            visit(successor, visited, postOrder);
+        }
+        postOrder.add(block);
+    }
+
+    private static List<Block> successors(Node terminator) {
+        return switch (terminator) {
+            case JumpNode jump -> List.of(jump.target());
+            case CondJumpNode condJump -> List.of(condJump.trueTarget(), condJump.falseTarget());
+            case ReturnNode _ -> List.of();
+            case null -> throw new IllegalStateException("block without jump or return");
+            default -> throw new IllegalStateException("not a terminator: " + terminator);
+        };
+    }
+
+    private final class Context implements EmitContext {
+        private final Tile tile;
+        private final MachineBasicBlock block;
+
+        Context(Tile tile, MachineBasicBlock block) {
+            this.tile = tile;
+            this.block = block;
+        }
+
+        @Override
+        public Operand operand(int leaf) {
+            if (this.tile.leaves().get(leaf).nonTerminal() == NonTerminal.IMM) {
+                return new Immediate(constant(leaf));
+            }
+            return register(leaf);
+        }
+
+        @Override
+        public Register register(int leaf) {
+            return Objects.requireNonNull(registers.get(this.tile.leaf(leaf)), () -> "no register for " + this.tile.leaf(leaf));
+        }
+
+        @Override
+        public int constant(int leaf) {
+            return switch (this.tile.leaf(leaf)) {
+                case ConstIntNode c -> c.value();
+                case ConstBoolNode b -> b.value() ? 1 : 0;
+                default -> throw new IllegalStateException("not a constant: " + this.tile.leaf(leaf));
+            };
+        }
+
+        @Override
+        public Register target() {
+            return registers.get(this.tile.root());
+        }
+
+        @Override
+        public Label label(Block block) {
+            return blocks.get(block).label();
+        }
+
+        @Override
+        public void emit(Opcode opcode, Operand... operands) {
+            this.block.append(new MachineInstruction(opcode, operands));
+        }
+
+        @Override
+        public void emit(Opcode opcode, Condition condition, Operand... operands) {
+            this.block.append(new MachineInstruction(opcode, condition, operands));
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+public enum NonTerminal {
+    REG, // Value lives in a (virtual) register
+    IMM, // Constant that is encoded as an immediate, no code needed
+    ANY, // Either REG or IMM, whichever is cheaper
+    STMT, // Control flow node, produces no value
+}
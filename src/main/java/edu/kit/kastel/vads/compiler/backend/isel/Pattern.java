@@ -0,0 +1,51 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.ir.node.Node;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/// A tree pattern over the IR. Inner patterns match nodes by their class, leaves match any node
+/// whose value can be provided as the given [NonTerminal].
+public sealed interface Pattern {
+
+    record NodePattern(Set<Class<? extends Node>> types, boolean commutative, List<Pattern> children) implements Pattern {
+    }
+
+    record LeafPattern(NonTerminal nonTerminal, IntPredicate constant) implements Pattern {
+    }
+
+    static Pattern node(Class<? extends Node> type, Pattern... children) {
+        return new NodePattern(Set.of(type), false, List.of(children));
+    }
+
+    static Pattern node(Set<Class<? extends Node>> types, Pattern... children) {
+        return new NodePattern(types, false, List.of(children));
+    }
+
+    /// Children may be matched in swapped order. For comparisons the emitter has to mirror the condition.
+    static Pattern commutative(Class<? extends Node> type, Pattern left, Pattern right) {
+        return new NodePattern(Set.of(type), true, List.of(left, right));
+    }
+
+    static Pattern commutative(Set<Class<? extends Node>> types, Pattern left, Pattern right) {
+        return new NodePattern(types, true, List.of(left, right));
+    }
+
+    static Pattern reg() {
+        return new LeafPattern(NonTerminal.REG, _ -> true);
+    }
+
+    static Pattern any() {
+        return new LeafPattern(NonTerminal.ANY, _ -> true);
+    }
+
+    static Pattern imm() {
+        return new LeafPattern(NonTerminal.IMM, _ -> true);
+    }
+
+    static Pattern imm(IntPredicate constant) {
+        return new LeafPattern(NonTerminal.IMM, constant);
+    }
+}
@@ -0,0 +1,10 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+/// A rewrite rule: a subtree matching `pattern` can be computed as `result` for `cost` plus the cost of its leaves.
+public record Rule(String name, NonTerminal result, Pattern pattern, int cost, TileEmitter emitter) {
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
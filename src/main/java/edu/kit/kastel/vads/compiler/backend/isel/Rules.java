@@ -0,0 +1,266 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.backend.mir.Address;
+import edu.kit.kastel.vads.compiler.backend.mir.Condition;
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64Register;
+import edu.kit.kastel.vads.compiler.ir.node.*;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+import java.util.Set;
+
+import static edu.kit.kastel.vads.compiler.backend.isel.Pattern.*;
+import static edu.kit.kastel.vads.compiler.ir.util.NodeSupport.predecessorSkipProj;
+
+/// The rule table of the [InstructionSelector].
+/// Costs roughly follow latencies: simple ALU ops and moves cost 1, three-component `lea` 2, `imul` 3, `idiv` 20.
+/// On equal cost the rule listed first wins, so more specialised rules come before the general ones.
+public final class Rules {
+    private Rules() {
+
+    }
+
+    private static final int MOVE = 1;
+    private static final int ALU = 1;
+    private static final int LEA = 1;
+    private static final int LEA3 = 2;
+    private static final int IMUL = 3;
+    private static final int SETCC = 2;
+    private static final int BRANCH = 1;
+    private static final int DIV = 20;
+
+    static final Set<Class<? extends Node>> COMPARISONS = Set.of(
+            LessNode.class, LeqNode.class, MoreNode.class, MeqNode.class, EqualNode.class, NotEqualNode.class);
+
+    public static final List<Rule> RULES = List.of(
+            // Constants
+            new Rule("const", NonTerminal.REG, imm(), MOVE,
+                    (tile, ctx) -> ctx.emit(Opcode.MOV, ctx.operand(0), ctx.target())),
+
+            // Unary operations, the IR expresses them as 0 - x and x ^ ~0
+            new Rule("neg", NonTerminal.REG, node(SubNode.class, imm(c -> c == 0), reg()), MOVE + ALU,
+                    (tile, ctx) -> unary(Opcode.NEG, 1, ctx)),
+            new Rule("not", NonTerminal.REG, commutative(ExclOrNode.class, reg(), imm(c -> c == ~0)), MOVE + ALU,
+                    (tile, ctx) -> unary(Opcode.NOT, 0, ctx)),
+
+            // Address arithmetic: base + index * scale + displacement in one lea
+            new Rule("lea-scaled-disp", NonTerminal.REG,
+                    commutative(AddNode.class,
+                            commutative(AddNode.class, reg(), commutative(MulNode.class, reg(), imm(Rules::isScale))),
+                            imm()),
+                    LEA3,
+                    (tile, ctx) -> lea(ctx.constant(3), ctx.register(0), ctx.register(1), ctx.constant(2), ctx)),
+            new Rule("lea-shifted-disp", NonTerminal.REG,
+                    commutative(AddNode.class,
+                            commutative(AddNode.class, reg(), node(LShiftNode.class, reg(), imm(Rules::isScaleShift))),
+                            imm()),
+                    LEA3,
+                    (tile, ctx) -> lea(ctx.constant(3), ctx.register(0), ctx.register(1), 1 << ctx.constant(2), ctx)),
+            new Rule("lea-base-disp", NonTerminal.REG,
+                    commutative(AddNode.class, commutative(AddNode.class, reg(), reg()), imm()),
+                    LEA3,
+                    (tile, ctx) -> lea(ctx.constant(2), ctx.register(0), ctx.register(1), 1, ctx)),
+            new Rule("lea-index-disp", NonTerminal.REG,
+                    commutative(AddNode.class, commutative(MulNode.class, reg(), imm(Rules::isScale)), imm()),
+                    LEA3,
+                    (tile, ctx) -> lea(ctx.constant(2), null, ctx.register(0), ctx.constant(1), ctx)),
+            new Rule("lea-scaled", NonTerminal.REG,
+                    commutative(AddNode.class, reg(), commutative(MulNode.class, reg(), imm(Rules::isScale))),
+                    LEA,
+                    (tile, ctx) -> lea(0, ctx.register(0), ctx.register(1), ctx.constant(2), ctx)),
+            new Rule("lea-shifted", NonTerminal.REG,
+                    commutative(AddNode.class, reg(), node(LShiftNode.class, reg(), imm(Rules::isScaleShift))),
+                    LEA,
+                    (tile, ctx) -> lea(0, ctx.register(0), ctx.register(1), 1 << ctx.constant(2), ctx)),
+            // x * 3, x * 5 and x * 9 as x + x * 2, x + x * 4 and x + x * 8
+            new Rule("lea-mul", NonTerminal.REG,
+                    commutative(MulNode.class, reg(), imm(c -> c == 3 || c == 5 || c == 9)),
+                    LEA,
+                    (tile, ctx) -> lea(0, ctx.register(0), ctx.register(0), ctx.constant(1) - 1, ctx)),
+
+            // Arithmetic
+            new Rule("add", NonTerminal.REG, commutative(AddNode.class, any(), any()), MOVE + ALU,
+                    (tile, ctx) -> twoAddress(Opcode.ADD, ctx)),
+            new Rule("sub", NonTerminal.REG, node(SubNode.class, any(), any()), MOVE + ALU,
+                    (tile, ctx) -> twoAddress(Opcode.SUB, ctx)),
+            new Rule("mul-shift", NonTerminal.REG,
+                    commutative(MulNode.class, any(), imm(c -> c > 0 && Integer.bitCount(c) == 1)), MOVE + ALU,
+                    (tile, ctx) -> {
+                        moveToTarget(ctx);
+                        ctx.emit(Opcode.SAL, new Immediate(Integer.numberOfTrailingZeros(ctx.constant(1))), ctx.target());
+                    }),
+            // Three-operand imul, no move into the target needed
+            new Rule("mul-imm", NonTerminal.REG, commutative(MulNode.class, reg(), imm()), IMUL,
+                    (tile, ctx) -> ctx.emit(Opcode.IMUL_IMM, ctx.operand(1), ctx.operand(0), ctx.target())),
+            new Rule("mul", NonTerminal.REG, commutative(MulNode.class, any(), any()), MOVE + IMUL,
+                    (tile, ctx) -> twoAddress(Opcode.IMUL, ctx)),
+            new Rule("div", NonTerminal.REG, node(DivNode.class, any(), reg()), DIV,
+                    (tile, ctx) -> division(X86_64Register.RAX, ctx)),
+            new Rule("mod", NonTerminal.REG, node(ModNode.class, any(), reg()), DIV,
+                    (tile, ctx) -> division(X86_64Register.RDX, ctx)),
+
+            // Bit operations
+            new Rule("and", NonTerminal.REG, commutative(BitAndNode.class, any(), any()), MOVE + ALU,
+                    (tile, ctx) -> twoAddress(Opcode.AND, ctx)),
+            new Rule("or", NonTerminal.REG, commutative(BitOrNode.class, any(), any()), MOVE + ALU,
+                    (tile, ctx) -> twoAddress(Opcode.OR, ctx)),
+            new Rule("xor", NonTerminal.REG, commutative(ExclOrNode.class, any(), any()), MOVE + ALU,
+                    (tile, ctx) -> twoAddress(Opcode.XOR, ctx)),
+            new Rule("shl-imm", NonTerminal.REG, node(LShiftNode.class, any(), imm()), MOVE + ALU,
+                    (tile, ctx) -> shift(Opcode.SAL, ctx)),
+            new Rule("sar-imm", NonTerminal.REG, node(RShiftNode.class, any(), imm()), MOVE + ALU,
+                    (tile, ctx) -> shift(Opcode.SAR, ctx)),
+            // A shift count in a register has to be in CL
+            new Rule("shl", NonTerminal.REG, node(LShiftNode.class, any(), reg()), 2 * MOVE + ALU,
+                    (tile, ctx) -> variableShift(Opcode.SAL, ctx)),
+            new Rule("sar", NonTerminal.REG, node(RShiftNode.class, any(), reg()), 2 * MOVE + ALU,
+                    (tile, ctx) -> variableShift(Opcode.SAR, ctx)),
+
+            // Logical And is like a multiplication of bools (which are 0(false) or >0 (true)
+            new Rule("logic-and", NonTerminal.REG, commutative(LogicAndNode.class, any(), any()), MOVE + IMUL,
+                    (tile, ctx) -> twoAddress(Opcode.IMUL, ctx)),
+            // Logical Or is like an addition of bools (which are 0(false) or >0 (true)
+            new Rule("logic-or", NonTerminal.REG, commutative(LogicOrNode.class, any(), any()), MOVE + ALU,
+                    (tile, ctx) -> twoAddress(Opcode.ADD, ctx)),
+
+            // Comparisons producing a bool value
+            new Rule("test-set", NonTerminal.REG, commutative(COMPARISONS, reg(), imm(c -> c == 0)), ALU + SETCC,
+                    (tile, ctx) -> {
+                        test(ctx);
+                        setCondition(tile, ctx);
+                    }),
+            new Rule("cmp-set", NonTerminal.REG, commutative(COMPARISONS, reg(), any()), ALU + SETCC,
+                    (tile, ctx) -> {
+                        compare(ctx);
+                        setCondition(tile, ctx);
+                    }),
+
+            // Control flow
+            new Rule("return", NonTerminal.STMT, node(ReturnNode.class, any()), MOVE,
+                    (tile, ctx) -> {
+                        ctx.emit(Opcode.MOV, ctx.operand(0), X86_64PhysicalRegisters.get(X86_64Register.RAX));
+                        ctx.emit(Opcode.RET);
+                    }),
+            new Rule("jump", NonTerminal.STMT, node(JumpNode.class), BRANCH,
+                    (tile, ctx) -> ctx.emit(Opcode.JMP, ctx.label(((JumpNode) tile.root()).target()))),
+            // Branch on a constant condition, only one target is reachable
+            new Rule("branch-const", NonTerminal.STMT, node(CondJumpNode.class, imm()), BRANCH,
+                    (tile, ctx) -> {
+                        CondJumpNode jump = (CondJumpNode) tile.root();
+                        ctx.emit(Opcode.JMP, ctx.label(ctx.constant(0) != 0 ? jump.trueTarget() : jump.falseTarget()));
+                    }),
+            // Compare and branch fused, the bool is never materialised
+            new Rule("branch-test", NonTerminal.STMT,
+                    node(CondJumpNode.class, commutative(COMPARISONS, reg(), imm(c -> c == 0))), ALU + 2 * BRANCH,
+                    (tile, ctx) -> {
+                        test(ctx);
+                        branch(condition(tile), tile, ctx);
+                    }),
+            new Rule("branch-cmp", NonTerminal.STMT,
+                    node(CondJumpNode.class, commutative(COMPARISONS, reg(), any())), ALU + 2 * BRANCH,
+                    (tile, ctx) -> {
+                        compare(ctx);
+                        branch(condition(tile), tile, ctx);
+                    }),
+            new Rule("branch", NonTerminal.STMT, node(CondJumpNode.class, reg()), ALU + 2 * BRANCH,
+                    (tile, ctx) -> {
+                        test(ctx);
+                        branch(Condition.NE, tile, ctx);
+                    })
+    );
+
+    private static boolean isScale(int c) {
+        return c == 2 || c == 4 || c == 8;
+    }
+
+    private static boolean isScaleShift(int c) {
+        return c >= 1 && c <= 3;
+    }
+
+    // Move first parameter into target register for binop
+    private static void moveToTarget(EmitContext ctx) {
+        ctx.emit(Opcode.MOV, ctx.operand(0), ctx.target());
+    }
+
+    private static void unary(Opcode operation, int leaf, EmitContext ctx) {
+        ctx.emit(Opcode.MOV, ctx.operand(leaf), ctx.target());
+        ctx.emit(operation, ctx.target());
+    }
+
+    // movl left, target; op right, target
+    private static void twoAddress(Opcode operation, EmitContext ctx) {
+        moveToTarget(ctx);
+        ctx.emit(operation, ctx.operand(1), ctx.target());
+    }
+
+    private static void shift(Opcode operation, EmitContext ctx) {
+        moveToTarget(ctx);
+        // shift counts are encoded as imm8, the hardware masks them to 5 bits anyway
+        ctx.emit(operation, new Immediate(ctx.constant(1) & 0x1F), ctx.target());
+    }
+
+    // The count is moved first, the target interferes with ECX while it is live
+    private static void variableShift(Opcode operation, EmitContext ctx) {
+        PhysicalRegister ecx = X86_64PhysicalRegisters.get(X86_64Register.RCX);
+        ctx.emit(Opcode.MOV, ctx.register(1), ecx);
+        moveToTarget(ctx);
+        ctx.emit(operation, ecx, ctx.target());
+    }
+
+    private static void lea(int displacement, @Nullable Register base, Register index, int scale, EmitContext ctx) {
+        ctx.emit(Opcode.LEA, new Address(base, index, scale, displacement), ctx.target());
+    }
+
+    private static void division(X86_64Register result, EmitContext ctx) {
+        PhysicalRegister eax = X86_64PhysicalRegisters.get(X86_64Register.RAX);
+        // Move the left operand to EAX and sign extend it into EDX
+        ctx.emit(Opcode.MOV, ctx.operand(0), eax);
+        ctx.emit(Opcode.CLTD);
+        ctx.emit(Opcode.IDIV, ctx.register(1));
+        // Quotient is in EAX, remainder in EDX
+        ctx.emit(Opcode.MOV, X86_64PhysicalRegisters.get(result), ctx.target());
+    }
+
+    private static void test(EmitContext ctx) {
+        ctx.emit(Opcode.TEST, ctx.register(0), ctx.register(0));
+    }
+
+    private static void compare(EmitContext ctx) {
+        ctx.emit(Opcode.CMP, ctx.operand(1), ctx.register(0));
+    }
+
+    private static void setCondition(Tile tile, EmitContext ctx) {
+        ctx.emit(Opcode.SETCC, condition(tile), ctx.target());
+        ctx.emit(Opcode.MOVZB, ctx.target(), ctx.target());
+    }
+
+    private static void branch(Condition condition, Tile tile, EmitContext ctx) {
+        CondJumpNode jump = (CondJumpNode) tile.root();
+        ctx.emit(Opcode.JCC, condition, ctx.label(jump.trueTarget()));
+        ctx.emit(Opcode.JMP, ctx.label(jump.falseTarget()));
+    }
+
+    // Condition code of the comparison in the tile, mirrored if the pattern matched its operands swapped
+    private static Condition condition(Tile tile) {
+        Node comparison = tile.covered().stream()
+                .filter(node -> COMPARISONS.contains(node.getClass()))
+                .findFirst()
+                .orElseThrow();
+        boolean swapped = tile.leaf(0) != predecessorSkipProj(comparison, BinaryOperationNode.LEFT);
+        Condition condition = switch (comparison) {
+            case LessNode _ -> Condition.L;
+            case LeqNode _ -> Condition.LE;
+            case MoreNode _ -> Condition.G;
+            case MeqNode _ -> Condition.GE;
+            case EqualNode _ -> Condition.E;
+            case NotEqualNode _ -> Condition.NE;
+            default -> throw new IllegalStateException("not a comparison: " + comparison);
+        };
+        return swapped ? condition.mirror() : condition;
+    }
+}
@@ -0,0 +1,42 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.ir.node.Node;
+import edu.kit.kastel.vads.compiler.ir.node.Phi;
+import edu.kit.kastel.vads.compiler.ir.node.UndefinedNode;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/// The tiles chosen by the [InstructionSelector], keyed by their root node.
+/// Nodes covered by the inner pattern of another tile have no tile of their own.
+public class Selection {
+    private final Map<Node, Tile> tiles;
+    private final List<Node> nodes;
+
+    Selection(Map<Node, Tile> tiles, List<Node> nodes) {
+        this.tiles = tiles;
+        this.nodes = nodes;
+    }
+
+    /// {@return all nodes reachable from the end block, every node after its inputs}
+    public List<Node> nodes() {
+        return List.copyOf(this.nodes);
+    }
+
+    public @Nullable Tile tile(Node node) {
+        return this.tiles.get(node);
+    }
+
+    /// {@return whether the value of the node is kept in a register}
+    public boolean needsRegister(Node node) {
+        if (node instanceof Phi phi) {
+            return !InstructionSelector.isSideEffectPhi(phi);
+        }
+        if (node instanceof UndefinedNode) {
+            return true;
+        }
+        Tile tile = tile(node);
+        return tile != null && tile.rule().result() == NonTerminal.REG;
+    }
+}
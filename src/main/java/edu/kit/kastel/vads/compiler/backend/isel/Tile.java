@@ -0,0 +1,17 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+import edu.kit.kastel.vads.compiler.ir.node.Node;
+
+import java.util.List;
+
+/// A rule applied at `root`. `covered` holds the nodes matched by inner patterns in pre-order (starting with
+/// `root`), `leaves` the nodes bound to the leaf patterns in pattern order with the non-terminal they are read as.
+public record Tile(Node root, Rule rule, List<Node> covered, List<Leaf> leaves) {
+
+    public record Leaf(Node node, NonTerminal nonTerminal) {
+    }
+
+    public Node leaf(int index) {
+        return leaves.get(index).node();
+    }
+}
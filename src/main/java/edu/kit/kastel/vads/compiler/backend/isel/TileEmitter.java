@@ -0,0 +1,7 @@
+package edu.kit.kastel.vads.compiler.backend.isel;
+
+@FunctionalInterface
+public interface TileEmitter {
+
+    void emit(Tile tile, EmitContext context);
+}
@@ -0,0 +1,19 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+import org.jspecify.annotations.Nullable;
+
+/// `displacement(base, index, scale)`, as computed by `lea`. The registers are read even if the address
+/// is the destination of an instruction.
+public record Address(@Nullable Register base, @Nullable Register index, int scale, int displacement)
+        implements Operand {
+
+    public Address withRegisters(@Nullable Register base, @Nullable Register index) {
+        return new Address(base, index, this.scale, this.displacement);
+    }
+
+    @Override
+    public String toString() {
+        return displacement + "(" + base + ", " + index + ", " + scale + ")";
+    }
+}
@@ -0,0 +1,44 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+/// Condition codes of `jcc` and `setcc` for signed comparisons.
+public enum Condition {
+    E("e"),
+    NE("ne"),
+    L("l"),
+    LE("le"),
+    G("g"),
+    GE("ge");
+
+    private final String suffix;
+
+    Condition(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String suffix() {
+        return suffix;
+    }
+
+    /// {@return the condition that holds exactly when this one doesn't}
+    public Condition negate() {
+        return switch (this) {
+            case E -> NE;
+            case NE -> E;
+            case L -> GE;
+            case LE -> G;
+            case G -> LE;
+            case GE -> L;
+        };
+    }
+
+    /// {@return the condition for the same comparison with swapped operands}
+    public Condition mirror() {
+        return switch (this) {
+            case E, NE -> this;
+            case L -> G;
+            case LE -> GE;
+            case G -> L;
+            case GE -> LE;
+        };
+    }
+}
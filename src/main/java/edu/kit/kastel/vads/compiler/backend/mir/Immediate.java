@@ -0,0 +1,8 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+public record Immediate(int value) implements Operand {
+    @Override
+    public String toString() {
+        return "$" + value;
+    }
+}
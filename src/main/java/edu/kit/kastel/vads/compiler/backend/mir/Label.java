@@ -0,0 +1,8 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+public record Label(String name) implements Operand {
+    @Override
+    public String toString() {
+        return name;
+    }
+}
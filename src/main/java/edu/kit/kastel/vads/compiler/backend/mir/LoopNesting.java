@@ -0,0 +1,71 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import java.util.*;
+
+/// The natural loops of a [MachineFunction] and how deep each block is nested in them.
+///
+/// Back edges point to a block on the DFS stack, the loop of a header are the blocks that reach the source
+/// of one of its back edges without passing through the header.
+public final class LoopNesting {
+    private final Map<MachineBasicBlock, Integer> loopDepth = new HashMap<>();
+    private final Map<MachineBasicBlock, Set<MachineBasicBlock>> backEdges = new HashMap<>();
+    private final Map<MachineBasicBlock, Set<MachineBasicBlock>> loops = new LinkedHashMap<>();
+
+    public LoopNesting(MachineFunction function) {
+        findBackEdges(function.entry(), new HashSet<>(), new HashSet<>());
+
+        this.backEdges.forEach((from, headers) -> {
+            for (MachineBasicBlock header : headers) {
+                Set<MachineBasicBlock> loop = this.loops.computeIfAbsent(header, _ -> new LinkedHashSet<>(List.of(header)));
+                Deque<MachineBasicBlock> worklist = new ArrayDeque<>(List.of(from));
+                while (!worklist.isEmpty()) {
+                    MachineBasicBlock block = worklist.poll();
+                    if (loop.add(block)) {
+                        worklist.addAll(block.predecessors());
+                    }
+                }
+            }
+        });
+        for (Set<MachineBasicBlock> loop : this.loops.values()) {
+            for (MachineBasicBlock block : loop) {
+                this.loopDepth.merge(block, 1, Integer::sum);
+            }
+        }
+    }
+
+    /// {@return the number of loops the block is part of}
+    public int depth(MachineBasicBlock block) {
+        return this.loopDepth.getOrDefault(block, 0);
+    }
+
+    public boolean isBackEdge(MachineBasicBlock from, MachineBasicBlock to) {
+        return this.backEdges.getOrDefault(from, Set.of()).contains(to);
+    }
+
+    /// {@return the loops, outer loops before the loops nested in them}
+    public List<Loop> loops() {
+        List<Loop> result = new ArrayList<>();
+        this.loops.forEach((header, blocks) -> result.add(new Loop(header, Collections.unmodifiableSet(blocks))));
+        result.sort(Comparator.comparingInt((Loop loop) -> loop.blocks().size()).reversed());
+        return result;
+    }
+
+    private void findBackEdges(MachineBasicBlock block, Set<MachineBasicBlock> visited, Set<MachineBasicBlock> onStack) {
+        visited.add(block);
+        onStack.add(block);
+        for (MachineBasicBlock successor : block.successors()) {
+            if (onStack.contains(successor)) {
+                this.backEdges.computeIfAbsent(block, _ -> new HashSet<>()).add(successor);
+            } else if (!visited.contains(successor)) {
+                findBackEdges(successor, visited, onStack);
+            }
+        }
+        onStack.remove(block);
+    }
+
+    public record Loop(MachineBasicBlock header, Set<MachineBasicBlock> blocks) {
+        public boolean contains(MachineBasicBlock block) {
+            return blocks.contains(block);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/// A straight line of instructions ending with jumps or a `ret`.
+public final class MachineBasicBlock {
+    private final Label label;
+    private final List<MachineInstruction> instructions = new ArrayList<>();
+    private final List<MachineBasicBlock> successors = new ArrayList<>();
+    private final List<MachineBasicBlock> predecessors = new ArrayList<>();
+
+    public MachineBasicBlock(Label label) {
+        this.label = label;
+    }
+
+    public Label label() {
+        return label;
+    }
+
+    /// {@return the instructions of the block, modifiable}
+    public List<MachineInstruction> instructions() {
+        return instructions;
+    }
+
+    public List<MachineBasicBlock> successors() {
+        return List.copyOf(successors);
+    }
+
+    public List<MachineBasicBlock> predecessors() {
+        return List.copyOf(predecessors);
+    }
+
+    public void addSuccessor(MachineBasicBlock successor) {
+        this.successors.add(successor);
+        successor.predecessors.add(this);
+    }
+
+    /// Redirects the edge to `successor` to `replacement`, the jumps have to be updated separately
+    public void replaceSuccessor(MachineBasicBlock successor, MachineBasicBlock replacement) {
+        this.successors.set(this.successors.indexOf(successor), replacement);
+        successor.predecessors.remove(this);
+        replacement.predecessors.add(this);
+    }
+
+    public void append(MachineInstruction instruction) {
+        this.instructions.add(instruction);
+    }
+
+    /// Inserts before the jumps at the end of the block
+    public void insertBeforeTerminator(MachineInstruction instruction) {
+        int index = instructions.size();
+        while (index > 0 && instructions.get(index - 1).opcode().isTerminator()) {
+            index--;
+        }
+        this.instructions.add(index, instruction);
+    }
+
+    @Override
+    public String toString() {
+        return label.name();
+    }
+}
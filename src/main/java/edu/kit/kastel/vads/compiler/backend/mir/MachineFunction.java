@@ -0,0 +1,83 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/// The machine code of a function. The first block is the entry, the order of the list is the layout.
+public final class MachineFunction {
+    private final String name;
+    private final List<MachineBasicBlock> blocks = new ArrayList<>();
+    private int frameSize;
+
+    public MachineFunction(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /// {@return the blocks in layout order, modifiable}
+    public List<MachineBasicBlock> blocks() {
+        return blocks;
+    }
+
+    public MachineBasicBlock entry() {
+        return blocks.getFirst();
+    }
+
+    /// Inserts an empty block on the edge between `from` and `to`, code on the edge can then be placed in it.
+    ///
+    /// {@return the new block, which only jumps to `to`}
+    public MachineBasicBlock splitEdge(MachineBasicBlock from, MachineBasicBlock to) {
+        MachineBasicBlock block = new MachineBasicBlock(new Label(from.label().name() + "_" + to.label().name()));
+        from.replaceSuccessor(to, block);
+        block.addSuccessor(to);
+        block.append(new MachineInstruction(Opcode.JMP, to.label()));
+        for (MachineInstruction instruction : from.instructions()) {
+            if (instruction.opcode().isTerminator() && !instruction.operands().isEmpty()
+                    && instruction.operand(0).equals(to.label())) {
+                instruction.setOperand(0, block.label());
+            }
+        }
+        blocks.add(blocks.indexOf(from) + 1, block);
+        return block;
+    }
+
+    /// Places code on the edge between `from` and `to`: at the start of `to` if it is only reached by the edge,
+    /// else at the end of `from` if it has no other successor. Critical edges get a block of their own.
+    public void insertOnEdge(MachineBasicBlock from, MachineBasicBlock to, List<MachineInstruction> instructions) {
+        if (instructions.isEmpty()) {
+            return;
+        }
+        if (to.predecessors().size() == 1) {
+            to.instructions().addAll(0, instructions);
+        } else if (from.successors().stream().allMatch(successor -> successor == to)) {
+            instructions.forEach(from::insertBeforeTerminator);
+        } else {
+            MachineBasicBlock block = splitEdge(from, to);
+            instructions.forEach(block::insertBeforeTerminator);
+        }
+    }
+
+    /// {@return the size of the spill area in bytes}
+    public int frameSize() {
+        return frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(":\n");
+        for (MachineBasicBlock block : blocks) {
+            builder.append(block.label()).append(":\n");
+            for (MachineInstruction instruction : block.instructions()) {
+                builder.append("  ").append(instruction).append("\n");
+            }
+        }
+        return builder.toString();
+    }
+}
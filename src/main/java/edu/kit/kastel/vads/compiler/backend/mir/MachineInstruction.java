@@ -0,0 +1,167 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64Register;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+public final class MachineInstruction {
+    private final Opcode opcode;
+    private final @Nullable Condition condition;
+    private final List<Operand> operands;
+
+    public MachineInstruction(Opcode opcode, Operand... operands) {
+        this(opcode, null, operands);
+    }
+
+    public MachineInstruction(Opcode opcode, @Nullable Condition condition, Operand... operands) {
+        assert (opcode == Opcode.JCC || opcode == Opcode.SETCC) == (condition != null) : "condition only for jcc/setcc";
+        this.opcode = opcode;
+        this.condition = condition;
+        this.operands = new ArrayList<>(List.of(operands));
+    }
+
+    public Opcode opcode() {
+        return opcode;
+    }
+
+    public @Nullable Condition condition() {
+        return condition;
+    }
+
+    public List<Operand> operands() {
+        return List.copyOf(operands);
+    }
+
+    public Operand operand(int index) {
+        return operands.get(index);
+    }
+
+    public void setOperand(int index, Operand operand) {
+        this.operands.set(index, operand);
+    }
+
+    /// Replaces every occurrence of a register, including the ones in addresses
+    public void replaceRegister(Register register, Register replacement) {
+        for (int i = 0; i < operands.size(); i++) {
+            switch (operands.get(i)) {
+                case Register r when r.equals(register) -> operands.set(i, replacement);
+                case Address address -> operands.set(i, address.withRegisters(
+                        Objects.equals(address.base(), register) ? replacement : address.base(),
+                        Objects.equals(address.index(), register) ? replacement : address.index()));
+                default -> {
+                }
+            }
+        }
+    }
+
+    public int destinationIndex() {
+        return operands.size() - 1;
+    }
+
+    /// {@return whether the instruction reads the value of the operand at the index}
+    public boolean reads(int index) {
+        return switch (opcode.form()) {
+            case MOVE -> index != destinationIndex();
+            case UPDATE, READ -> true;
+            case WRITE, CONTROL -> false;
+        };
+    }
+
+    /// {@return whether the instruction writes the operand at the index}
+    public boolean writes(int index) {
+        return switch (opcode.form()) {
+            case MOVE, UPDATE, WRITE -> index == destinationIndex();
+            case READ, CONTROL -> false;
+        };
+    }
+
+    /// {@return the registers read, including those used for addressing}
+    public List<Register> uses() {
+        List<Register> uses = new ArrayList<>();
+        for (int i = 0; i < operands.size(); i++) {
+            boolean read = reads(i);
+            switch (operands.get(i)) {
+                case Register register when read -> uses.add(register);
+                case Address address -> {
+                    if (address.base() != null) uses.add(address.base());
+                    if (address.index() != null) uses.add(address.index());
+                }
+                default -> {
+                }
+            }
+        }
+        return uses;
+    }
+
+    /// {@return the register written, if any}
+    public @Nullable Register def() {
+        if (operands.isEmpty() || !writes(destinationIndex())) {
+            return null;
+        }
+        return operands.getLast() instanceof Register register ? register : null;
+    }
+
+    /// {@return the fixed registers read by the instruction without being an operand}
+    public List<PhysicalRegister> implicitUses() {
+        return switch (opcode) {
+            case IDIV -> List.of(fixed(X86_64Register.RAX), fixed(X86_64Register.RDX));
+            case CLTD, RET -> List.of(fixed(X86_64Register.RAX));
+            default -> List.of();
+        };
+    }
+
+    /// {@return the fixed registers written by the instruction without being an operand}
+    public List<PhysicalRegister> implicitDefs() {
+        return switch (opcode) {
+            case IDIV -> List.of(fixed(X86_64Register.RAX), fixed(X86_64Register.RDX));
+            case CLTD -> List.of(fixed(X86_64Register.RDX));
+            default -> List.of();
+        };
+    }
+
+    private static PhysicalRegister fixed(X86_64Register register) {
+        return X86_64PhysicalRegisters.get(register);
+    }
+
+    /// {@return whether the operand at the index may be an immediate instead of a register}
+    public boolean acceptsImmediate(int index) {
+        if (index != 0 || operands.size() != 2 || operands.get(1) instanceof Immediate) {
+            return false;
+        }
+        return switch (opcode) {
+            case MOV, ADD, SUB, IMUL, AND, OR, XOR, CMP -> true;
+            default -> false;
+        };
+    }
+
+    /// {@return whether the operand at the index may be a memory operand, if it is the only one}
+    public boolean acceptsMemory(int index) {
+        return switch (opcode) {
+            case MOV, ADD, SUB, AND, OR, XOR, CMP, TEST, NEG, NOT, SAL, SAR, IDIV, SETCC -> true;
+            // the destination of imul and movzbl is always a register
+            case IMUL, IMUL_IMM, MOVZB -> index != destinationIndex();
+            default -> false;
+        };
+    }
+
+    /// {@return whether this is a `movl` between two registers}
+    public boolean isRegisterMove() {
+        return opcode == Opcode.MOV && operands.get(0) instanceof Register && operands.get(1) instanceof Register;
+    }
+
+    @Override
+    public String toString() {
+        String mnemonic = opcode.mnemonic() + (condition == null ? "" : condition.suffix());
+        if (operands.isEmpty()) {
+            return mnemonic;
+        }
+        return mnemonic + " " + operands.stream().map(Operand::toString).collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,95 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+/// Machine opcodes with their AT&T mnemonic. Operands are in AT&T order, the destination comes last.
+public enum Opcode {
+    MOV("movl", Form.MOVE, 4),
+    MOVZB("movzbl", Form.MOVE, 4),
+    LEA("leal", Form.MOVE, 4),
+    ADD("addl", Form.UPDATE, 4),
+    SUB("subl", Form.UPDATE, 4),
+    IMUL("imull", Form.UPDATE, 4),
+    // imull $c, source, destination
+    IMUL_IMM("imull", Form.MOVE, 4),
+    // Divides EDX:EAX by the operand, quotient in EAX, remainder in EDX
+    IDIV("idivl", Form.READ, 4),
+    // Sign extends EAX into EDX
+    CLTD("cltd", Form.READ, 4),
+    NEG("negl", Form.UPDATE, 4),
+    NOT("notl", Form.UPDATE, 4),
+    AND("andl", Form.UPDATE, 4),
+    OR("orl", Form.UPDATE, 4),
+    XOR("xorl", Form.UPDATE, 4),
+    SAL("sall", Form.UPDATE, 4),
+    SAR("sarl", Form.UPDATE, 4),
+    CMP("cmpl", Form.READ, 4),
+    TEST("testl", Form.READ, 4),
+    // Writes the lowest byte of the destination only
+    SETCC("set", Form.WRITE, 1),
+    JMP("jmp", Form.CONTROL, 8),
+    JCC("j", Form.CONTROL, 8),
+    RET("ret", Form.CONTROL, 8),
+    // Frame setup and teardown
+    PUSHQ("pushq", Form.READ, 8),
+    POPQ("popq", Form.WRITE, 8),
+    MOVQ("movq", Form.MOVE, 8),
+    ADDQ("addq", Form.UPDATE, 8),
+    SUBQ("subq", Form.UPDATE, 8);
+
+    private final String mnemonic;
+    private final Form form;
+    private final int size;
+
+    Opcode(String mnemonic, Form form, int size) {
+        this.mnemonic = mnemonic;
+        this.form = form;
+        this.size = size;
+    }
+
+    public String mnemonic() {
+        return mnemonic;
+    }
+
+    public Form form() {
+        return form;
+    }
+
+    /// {@return the width of register operands in bytes}
+    public int size() {
+        return size;
+    }
+
+    public boolean isTerminator() {
+        return form == Form.CONTROL;
+    }
+
+    public boolean readsFlags() {
+        return this == JCC || this == SETCC;
+    }
+
+    /// {@return whether the condition codes are changed (or left undefined) by the instruction}
+    public boolean writesFlags() {
+        return switch (this) {
+            case ADD, SUB, IMUL, IMUL_IMM, IDIV, NEG, AND, OR, XOR, SAL, SAR, CMP, TEST, ADDQ, SUBQ -> true;
+            case MOV, MOVZB, LEA, CLTD, NOT, SETCC, JMP, JCC, RET, PUSHQ, POPQ, MOVQ -> false;
+        };
+    }
+
+    /// {@return whether the instruction stores below the stack pointer (a push, or the return address of a call),
+    /// where a leaf function may keep its spill area}
+    public boolean writesBelowStackPointer() {
+        return switch (this) {
+            case PUSHQ -> true;
+            case MOV, MOVZB, LEA, ADD, SUB, IMUL, IMUL_IMM, IDIV, CLTD, NEG, NOT, AND, OR, XOR, SAL, SAR, CMP, TEST,
+                 SETCC, JMP, JCC, RET, POPQ, MOVQ, ADDQ, SUBQ -> false;
+        };
+    }
+
+    /// How an instruction accesses its operands
+    public enum Form {
+        MOVE, // reads all but the last operand, writes the last
+        UPDATE, // reads all operands, writes the last
+        READ, // reads all operands, writes none
+        WRITE, // writes the last operand without reading anything
+        CONTROL, // transfers control
+    }
+}
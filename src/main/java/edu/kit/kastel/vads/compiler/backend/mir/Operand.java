@@ -0,0 +1,6 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+/// An operand of a [MachineInstruction]: a register (virtual or physical), an [Immediate],
+/// a [StackSlot], an [Address] or a [Label].
+public interface Operand {
+}
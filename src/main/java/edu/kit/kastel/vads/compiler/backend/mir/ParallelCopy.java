@@ -0,0 +1,82 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/// Copies that happen at the same time, like the copies into the phis of a block on one incoming edge.
+///
+/// Every destination reads the value its source had before any of the copies. [#sequentialize()] orders them
+/// into moves (Boissinot et al.): a copy is emitted once no other copy still needs the old value of its
+/// destination, and a source that was already moved away is read from its new location. What remains are
+/// cycles, each is broken by saving one value in a scratch register. A chain takes one move per copy, a cycle
+/// of n copies n + 1.
+public final class ParallelCopy {
+    private final Map<Register, Operand> copies = new LinkedHashMap<>();
+
+    /// Adds `destination <- source`, copies of a register into itself are dropped
+    public void add(Operand source, Register destination) {
+        if (!source.equals(destination)) {
+            this.copies.put(destination, source);
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.copies.isEmpty();
+    }
+
+    /// {@return moves with the effect of the parallel copy, cycles are broken with registers from scratch}
+    public List<MachineInstruction> sequentialize(Supplier<Register> scratch) {
+        List<MachineInstruction> moves = new ArrayList<>();
+        // where the old value of a source can be read now
+        Map<Register, Register> location = new HashMap<>();
+        // the register source of every destination, immediates are moved at the end
+        Map<Register, Register> predecessor = new LinkedHashMap<>();
+        this.copies.forEach((destination, source) -> {
+            if (source instanceof Register register) {
+                location.put(register, register);
+                predecessor.put(destination, register);
+            }
+        });
+
+        // a source with several destinations moves on, so whether a destination is done can't be told by location
+        Set<Register> copied = new HashSet<>();
+        Deque<Register> ready = new ArrayDeque<>();
+        Deque<Register> todo = new ArrayDeque<>(predecessor.keySet());
+        for (Register destination : predecessor.keySet()) {
+            if (!location.containsKey(destination)) {
+                ready.add(destination);
+            }
+        }
+        while (!todo.isEmpty()) {
+            while (!ready.isEmpty()) {
+                Register destination = ready.poll();
+                Register source = predecessor.get(destination);
+                Register current = location.get(source);
+                moves.add(new MachineInstruction(Opcode.MOV, current, destination));
+                copied.add(destination);
+                location.put(source, destination);
+                // the old value of the source is saved, it can be overwritten now
+                if (source.equals(current) && predecessor.containsKey(source)) {
+                    ready.add(source);
+                }
+            }
+            Register destination = todo.poll();
+            if (!copied.contains(destination)) {
+                // not copied yet, so part of a cycle whose values are all still in place
+                Register saved = scratch.get();
+                moves.add(new MachineInstruction(Opcode.MOV, destination, saved));
+                location.put(destination, saved);
+                ready.add(destination);
+            }
+        }
+
+        this.copies.forEach((destination, source) -> {
+            if (!(source instanceof Register)) {
+                moves.add(new MachineInstruction(Opcode.MOV, source, destination));
+            }
+        });
+        return moves;
+    }
+}
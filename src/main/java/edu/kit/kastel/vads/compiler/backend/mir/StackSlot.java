@@ -0,0 +1,9 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+/// A spilled value, `offset` bytes relative to the stack pointer, below it in the red zone.
+public record StackSlot(int offset) implements Operand {
+    @Override
+    public String toString() {
+        return offset + "(%rsp)";
+    }
+}
@@ -0,0 +1,112 @@
+package edu.kit.kastel.vads.compiler.backend.optimize;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+
+import java.util.*;
+
+/// Orders the blocks of a function so that the likely successor of a block falls through.
+///
+/// 1. Estimate edge weights from the [LoopNesting], there is no runtime profile: a block in a loop nest of
+///    depth d is executed 10^d times, edges leaving a loop are unlikely and back edges are preferred.
+/// 2. Pettis-Hansen: merge chains of blocks along the edges in order of decreasing weight, an edge can only
+///    be merged if it connects the tail of one chain to the head of another.
+/// 3. Place the chain of the entry block first, then the others in order of their heaviest incoming edge.
+/// 4. Invert conditional branches whose true target follows, so that only the unlikely way is taken.
+///
+/// Preferring the back edge over the edge from the loop header into the body rotates loops: the header
+/// with the exit test ends up below the body and each iteration takes a single branch back to the body.
+public class BlockLayout {
+    private static final double LOOP_FREQUENCY = 10;
+    private static final double EXIT_PROBABILITY = 0.1;
+    private static final double BACK_EDGE_BONUS = 2;
+
+    public void layout(MachineFunction function) {
+        LoopNesting loops = new LoopNesting(function);
+
+        List<Edge> edges = new ArrayList<>();
+        for (MachineBasicBlock block : function.blocks()) {
+            for (MachineBasicBlock successor : block.successors()) {
+                edges.add(new Edge(block, successor, weight(loops, block, successor)));
+            }
+        }
+        edges.sort(Comparator.comparingDouble(Edge::weight).reversed());
+
+        Map<MachineBasicBlock, List<MachineBasicBlock>> chains = new HashMap<>();
+        for (MachineBasicBlock block : function.blocks()) {
+            chains.put(block, new ArrayList<>(List.of(block)));
+        }
+        for (Edge edge : edges) {
+            List<MachineBasicBlock> from = chains.get(edge.from());
+            List<MachineBasicBlock> to = chains.get(edge.to());
+            if (from == to || from.getLast() != edge.from() || to.getFirst() != edge.to()
+                    || edge.to() == function.entry()) {
+                continue;
+            }
+            from.addAll(to);
+            for (MachineBasicBlock block : to) {
+                chains.put(block, from);
+            }
+        }
+
+        List<MachineBasicBlock> order = new ArrayList<>(chains.get(function.entry()));
+        List<List<MachineBasicBlock>> rest = new ArrayList<>();
+        for (MachineBasicBlock block : function.blocks()) {
+            List<MachineBasicBlock> chain = chains.get(block);
+            if (chain.getFirst() == block && block != function.entry()) {
+                rest.add(chain);
+            }
+        }
+        rest.sort(Comparator.comparingDouble((List<MachineBasicBlock> chain) -> incomingWeight(chain.getFirst(), edges))
+                .reversed());
+        rest.forEach(order::addAll);
+
+        function.blocks().clear();
+        function.blocks().addAll(order);
+        invertBranches(function);
+    }
+
+    private static double weight(LoopNesting loops, MachineBasicBlock from, MachineBasicBlock to) {
+        double weight = Math.pow(LOOP_FREQUENCY, loops.depth(from));
+        if (from.successors().size() > 1) {
+            boolean leavesLoop = loops.depth(to) < loops.depth(from);
+            weight *= leavesLoop ? EXIT_PROBABILITY : 1.0 / from.successors().size();
+        }
+        if (loops.isBackEdge(from, to)) {
+            weight *= BACK_EDGE_BONUS;
+        }
+        return weight;
+    }
+
+    private static double incomingWeight(MachineBasicBlock block, List<Edge> edges) {
+        double weight = 0;
+        for (Edge edge : edges) {
+            if (edge.to() == block) {
+                weight = Math.max(weight, edge.weight());
+            }
+        }
+        return weight;
+    }
+
+    // jcc L1; jmp L2 with L1 next  =>  j!cc L2
+    private static void invertBranches(MachineFunction function) {
+        List<MachineBasicBlock> blocks = function.blocks();
+        for (int b = 0; b + 1 < blocks.size(); b++) {
+            List<MachineInstruction> instructions = blocks.get(b).instructions();
+            int size = instructions.size();
+            if (size < 2) {
+                continue;
+            }
+            MachineInstruction branch = instructions.get(size - 2);
+            MachineInstruction jump = instructions.get(size - 1);
+            if (branch.opcode() != Opcode.JCC || jump.opcode() != Opcode.JMP
+                    || !branch.operand(0).equals(blocks.get(b + 1).label())) {
+                continue;
+            }
+            instructions.set(size - 2, new MachineInstruction(Opcode.JCC, Objects.requireNonNull(branch.condition()).negate(), jump.operand(0)));
+            instructions.set(size - 1, new MachineInstruction(Opcode.JMP, branch.operand(0)));
+        }
+    }
+
+    private record Edge(MachineBasicBlock from, MachineBasicBlock to, double weight) {
+    }
+}
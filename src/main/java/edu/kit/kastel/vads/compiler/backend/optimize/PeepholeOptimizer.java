@@ -0,0 +1,174 @@
+package edu.kit.kastel.vads.compiler.backend.optimize;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+
+/// Removes obvious waste from allocated machine code by looking at a few instructions at a time.
+/// The rules are applied until none of them changes anything:
+///
+/// - self moves `movl %ebx, %ebx`
+/// - reloads of a stack slot whose value is still in the register it was stored from or loaded into,
+///   including the store-then-load pairs through the R14/R15 spill scratch registers
+/// - stores of a value that was just loaded from the same slot
+/// - `jmp` to the block that follows anyway
+/// - comparisons whose condition codes are overwritten or never read
+/// - `testl` of a bool that was just set from the condition codes, the branch uses them directly
+///
+/// Condition codes are never live across blocks in the code of the instruction selector.
+public class PeepholeOptimizer {
+    // How far back a reload looks for the last access of its stack slot
+    private static final int WINDOW = 8;
+
+    public void optimize(MachineFunction function) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            List<MachineBasicBlock> blocks = function.blocks();
+            for (int b = 0; b < blocks.size(); b++) {
+                List<MachineInstruction> instructions = blocks.get(b).instructions();
+                changed |= removeSelfMoves(instructions);
+                changed |= forwardStackSlots(instructions);
+                changed |= removeDeadFlags(instructions);
+                changed |= branchOnSetFlags(instructions);
+                if (b + 1 < blocks.size()) {
+                    changed |= removeFallThroughJump(instructions, blocks.get(b + 1));
+                }
+            }
+        }
+    }
+
+    private boolean removeSelfMoves(List<MachineInstruction> instructions) {
+        return instructions.removeIf(instruction -> (instruction.opcode() == Opcode.MOV || instruction.opcode() == Opcode.MOVQ)
+                && instruction.operand(0).equals(instruction.operand(1)));
+    }
+
+    private boolean forwardStackSlots(List<MachineInstruction> instructions) {
+        boolean changed = false;
+        for (int j = 0; j < instructions.size(); j++) {
+            MachineInstruction instruction = instructions.get(j);
+            if (instruction.opcode() != Opcode.MOV) {
+                continue;
+            }
+            if (instruction.operand(0) instanceof StackSlot slot && instruction.operand(1) instanceof PhysicalRegister target) {
+                // Reload: take the value from the register that still holds it
+                PhysicalRegister holder = registerHolding(instructions, j, slot);
+                if (holder != null) {
+                    instructions.set(j, new MachineInstruction(Opcode.MOV, holder, target));
+                    changed = true;
+                }
+            } else if (instruction.operand(0) instanceof PhysicalRegister source && instruction.operand(1) instanceof StackSlot slot) {
+                // Store of the value the slot already holds
+                if (source.equals(registerHolding(instructions, j, slot))) {
+                    instructions.remove(j--);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    // The register that holds the value of the slot before instruction j, if a recent move put it there
+    private static @Nullable PhysicalRegister registerHolding(List<MachineInstruction> instructions, int j, StackSlot slot) {
+        for (int k = j - 1; k >= Math.max(0, j - WINDOW); k--) {
+            MachineInstruction previous = instructions.get(k);
+            if (!previous.operands().contains(slot)) {
+                continue;
+            }
+            if (previous.opcode() != Opcode.MOV) {
+                return null;
+            }
+            Operand other = previous.operand(0).equals(slot) ? previous.operand(1) : previous.operand(0);
+            if (other instanceof PhysicalRegister register && !writtenBetween(instructions, k + 1, j, register)) {
+                return register;
+            }
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean writtenBetween(List<MachineInstruction> instructions, int from, int to, PhysicalRegister register) {
+        for (int i = from; i < to; i++) {
+            MachineInstruction instruction = instructions.get(i);
+            if (register.equals(instruction.def()) || instruction.implicitDefs().contains(register)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeDeadFlags(List<MachineInstruction> instructions) {
+        boolean changed = false;
+        for (int i = 0; i < instructions.size(); i++) {
+            Opcode opcode = instructions.get(i).opcode();
+            if ((opcode == Opcode.CMP || opcode == Opcode.TEST) && !flagsRead(instructions, i + 1)) {
+                instructions.remove(i--);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean flagsRead(List<MachineInstruction> instructions, int from) {
+        for (int i = from; i < instructions.size(); i++) {
+            Opcode opcode = instructions.get(i).opcode();
+            if (opcode.readsFlags()) {
+                return true;
+            }
+            if (opcode.writesFlags()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // setcc t; movzbl t, t; ...; testl t, t; jne L  =>  setcc t; movzbl t, t; ...; jcc L
+    private boolean branchOnSetFlags(List<MachineInstruction> instructions) {
+        boolean changed = false;
+        for (int i = 0; i + 1 < instructions.size(); i++) {
+            MachineInstruction test = instructions.get(i);
+            MachineInstruction jump = instructions.get(i + 1);
+            if (test.opcode() != Opcode.TEST || !test.operand(0).equals(test.operand(1)) || jump.opcode() != Opcode.JCC
+                    || (jump.condition() != Condition.NE && jump.condition() != Condition.E)) {
+                continue;
+            }
+            Condition condition = setCondition(instructions, i, test.operand(0));
+            if (condition == null) {
+                continue;
+            }
+            instructions.set(i + 1, new MachineInstruction(Opcode.JCC,
+                    jump.condition() == Condition.NE ? condition : condition.negate(), jump.operand(0)));
+            instructions.remove(i);
+            changed = true;
+        }
+        return changed;
+    }
+
+    // The condition a preceding setcc wrote into the register, if the flags it was set from are still intact
+    private static @Nullable Condition setCondition(List<MachineInstruction> instructions, int test, Operand register) {
+        for (int k = test - 1; k >= 0; k--) {
+            MachineInstruction previous = instructions.get(k);
+            if (previous.opcode() == Opcode.SETCC && previous.operand(0).equals(register)) {
+                return previous.condition();
+            }
+            boolean zeroExtend = previous.opcode() == Opcode.MOVZB && previous.operand(0).equals(register)
+                    && previous.operand(1).equals(register);
+            if (previous.opcode().writesFlags() || (!zeroExtend && register.equals(previous.def()))
+                    || previous.implicitDefs().contains(register)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean removeFallThroughJump(List<MachineInstruction> instructions, MachineBasicBlock next) {
+        if (!instructions.isEmpty() && instructions.getLast().opcode() == Opcode.JMP
+                && instructions.getLast().operand(0).equals(next.label())) {
+            instructions.removeLast();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,28 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+
+import java.util.List;
+import java.util.function.Function;
+
+/// The [MachineRegisterAllocator]s the code generator can color with.
+public enum AllocationStrategy {
+    CHORDAL(PhysicalRegisterAllocator::new),
+    ITERATED_COALESCING(IteratedRegisterCoalescing::new),
+    PBQP(PbqpAllocator::new);
+
+    private final Function<List<LivenessLine>, MachineRegisterAllocator> factory;
+
+    AllocationStrategy(Function<List<LivenessLine>, MachineRegisterAllocator> factory) {
+        this.factory = factory;
+    }
+
+    public MachineRegisterAllocator create(List<LivenessLine> livenessLines) {
+        return this.factory.apply(livenessLines);
+    }
+
+    /// {@return the default strategy of an optimization level, -O2 colors with iterated register coalescing}
+    public static AllocationStrategy forOptimizationLevel(int optimizationLevel) {
+        return optimizationLevel >= 2 ? ITERATED_COALESCING : CHORDAL;
+    }
+}
@@ -0,0 +1,380 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleGraph;
+
+import java.util.*;
+
+import static edu.kit.kastel.vads.compiler.backend.regalloc.RegisterAllocationSupport.*;
+
+/// Graph coloring with iterated register coalescing (George and Appel).
+///
+/// Every temp is in exactly one worklist, the allocator repeats the first step that has work until all are empty:
+/// 1. Simplify: remove a temp with fewer than K neighbors that is not move related and push it on the select stack.
+/// 2. Coalesce: merge the two sides of a move if that can't make the graph uncolorable. A move into a precolored
+///    register uses the George test (every neighbor of the temp already interferes with the register or has few
+///    neighbors), other moves the Briggs test (the merged node has fewer than K neighbors of high degree).
+/// 3. Freeze: give up the moves of a temp with few neighbors, so that it can be simplified.
+/// 4. Spill: push the temp with the lowest spill cost per neighbor, hoping that it still gets a color.
+/// 5. Select: pop the stack and give every temp a color none of its neighbors has, coalesced temps share the
+///    color of the temp they were merged into. Temps without a free color are actually spilled.
+///
+/// Spilled temps don't get new short live ranges here: R14 and R15 are reserved to stage them, so if a temp has to
+/// be spilled, the allocation is repeated with two colors less. Constants are rematerialized like in the
+/// [PhysicalRegisterAllocator]. Unlike its greedy coalescing, merging temps can make the graph need more colors
+/// than before (it is no longer chordal), which the conservative tests bound.
+public class IteratedRegisterCoalescing implements MachineRegisterAllocator {
+    private static final int INFINITE_DEGREE = Integer.MAX_VALUE / 2;
+
+    private final SimpleGraph<Register, DefaultEdge> interferenceGraph;
+    private final List<Move> moves = new ArrayList<>();
+    private final Map<Register, Double> spillCosts;
+    private final Map<Register, Immediate> constants;
+    private int registerCount;
+
+    private final Set<Register> simplifyWorklist = new LinkedHashSet<>();
+    private final Set<Register> freezeWorklist = new LinkedHashSet<>();
+    private final Set<Register> spillWorklist = new LinkedHashSet<>();
+    private final Set<Register> spilledNodes = new LinkedHashSet<>();
+    private final Set<Register> coalescedNodes = new LinkedHashSet<>();
+    private final Set<Register> coloredNodes = new LinkedHashSet<>();
+    private final Deque<Register> selectStack = new ArrayDeque<>();
+    private final Set<Register> onStack = new HashSet<>();
+
+    private final Set<Move> worklistMoves = new LinkedHashSet<>();
+    private final Set<Move> activeMoves = new LinkedHashSet<>();
+    private final Set<Move> coalescedMoves = new HashSet<>();
+    private final Set<Move> constrainedMoves = new HashSet<>();
+    private final Set<Move> frozenMoves = new HashSet<>();
+
+    private final Map<Register, Set<Register>> adjacencyList = new HashMap<>();
+    private final Map<Register, Integer> degree = new HashMap<>();
+    private final Map<Register, Set<Move>> moveList = new HashMap<>();
+    private final Map<Register, Register> alias = new HashMap<>();
+    private final Map<Register, Integer> color = new HashMap<>();
+
+    public IteratedRegisterCoalescing(List<LivenessLine> livenessLines) {
+        this.interferenceGraph = interferenceGraph(livenessLines);
+        this.constants = constants(livenessLines);
+        this.spillCosts = spillCosts(livenessLines, constants);
+        for (LivenessLine livenessLine : livenessLines) {
+            if (!livenessLine.instruction().isRegisterMove()) continue;
+            Register source = (Register) livenessLine.instruction().operand(0);
+            Register destination = (Register) livenessLine.instruction().operand(1);
+            if (!source.equals(destination)
+                    && interferenceGraph.containsVertex(source) && interferenceGraph.containsVertex(destination)) {
+                moves.add(new Move(source, destination));
+            }
+        }
+
+        this.registerCount = X86_64PhysicalRegisters.registerCount();
+        allocateColors();
+        // The scratch registers are only needed to stage spilled values
+        if (!spilledNodes.isEmpty()) {
+            this.registerCount -= X86_64PhysicalRegisters.SCRATCH_REGISTERS;
+            allocateColors();
+        }
+    }
+
+    @Override
+    public boolean spills() {
+        return !spilledNodes.isEmpty();
+    }
+
+    @Override
+    public Map<Register, Immediate> rematerializations() {
+        Map<Register, Immediate> rematerialized = new HashMap<>();
+        for (Register register : spilledNodes) {
+            if (constants.containsKey(register)) rematerialized.put(register, constants.get(register));
+        }
+        return rematerialized;
+    }
+
+    @Override
+    public Map<Register, PhysicalRegister> allocate() {
+        Map<Register, PhysicalRegister> physicalRegisters = new HashMap<>();
+        color.forEach((register, c) -> physicalRegisters.put(register, X86_64PhysicalRegisters.get(c, registerCount)));
+
+        Map<Register, Set<Register>> partners = new HashMap<>();
+        for (Move move : moves) {
+            partners.computeIfAbsent(move.source(), _ -> new LinkedHashSet<>()).add(move.destination());
+            partners.computeIfAbsent(move.destination(), _ -> new LinkedHashSet<>()).add(move.source());
+        }
+        stackSlots(spilledNodes, interferenceGraph, partners, constants).forEach((register, slot) ->
+                physicalRegisters.put(register, X86_64PhysicalRegisters.get(registerCount + slot, registerCount)));
+
+        return physicalRegisters;
+    }
+
+    private void allocateColors() {
+        build();
+        makeWorklist();
+        while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty()
+                || !freezeWorklist.isEmpty() || !spillWorklist.isEmpty()) {
+            if (!simplifyWorklist.isEmpty()) {
+                simplify();
+            } else if (!worklistMoves.isEmpty()) {
+                coalesce();
+            } else if (!freezeWorklist.isEmpty()) {
+                freeze();
+            } else {
+                selectSpill();
+            }
+        }
+        assignColors();
+    }
+
+    private void build() {
+        for (Set<?> set : List.of(simplifyWorklist, freezeWorklist, spillWorklist, spilledNodes, coalescedNodes,
+                coloredNodes, onStack, worklistMoves, activeMoves, coalescedMoves, constrainedMoves, frozenMoves)) {
+            set.clear();
+        }
+        selectStack.clear();
+        adjacencyList.clear();
+        degree.clear();
+        moveList.clear();
+        alias.clear();
+        color.clear();
+
+        for (Register register : interferenceGraph.vertexSet()) {
+            if (isPrecolored(register)) {
+                color.put(register, X86_64PhysicalRegisters.indexOf((PhysicalRegister) register));
+                degree.put(register, INFINITE_DEGREE);
+            } else {
+                adjacencyList.put(register, new LinkedHashSet<>());
+                degree.put(register, 0);
+            }
+        }
+        for (DefaultEdge edge : interferenceGraph.edgeSet()) {
+            addEdge(interferenceGraph.getEdgeSource(edge), interferenceGraph.getEdgeTarget(edge));
+        }
+        for (Move move : moves) {
+            moveList.computeIfAbsent(move.source(), _ -> new LinkedHashSet<>()).add(move);
+            moveList.computeIfAbsent(move.destination(), _ -> new LinkedHashSet<>()).add(move);
+            worklistMoves.add(move);
+        }
+    }
+
+    private void addEdge(Register u, Register v) {
+        if (u.equals(v) || interferes(u, v)) return;
+        if (!isPrecolored(u)) {
+            adjacencyList.get(u).add(v);
+            degree.merge(u, 1, Integer::sum);
+        }
+        if (!isPrecolored(v)) {
+            adjacencyList.get(v).add(u);
+            degree.merge(v, 1, Integer::sum);
+        }
+    }
+
+    // Precolored registers have no adjacency list, but every temp interfering with one has it in its own
+    private boolean interferes(Register u, Register v) {
+        if (!isPrecolored(u)) return adjacencyList.get(u).contains(v);
+        if (!isPrecolored(v)) return adjacencyList.get(v).contains(u);
+        return true;
+    }
+
+    private void makeWorklist() {
+        for (Register register : adjacencyList.keySet()) {
+            if (degree.get(register) >= registerCount) {
+                spillWorklist.add(register);
+            } else if (isMoveRelated(register)) {
+                freezeWorklist.add(register);
+            } else {
+                simplifyWorklist.add(register);
+            }
+        }
+    }
+
+    private Set<Register> adjacent(Register register) {
+        Set<Register> adjacent = new LinkedHashSet<>(adjacencyList.get(register));
+        adjacent.removeAll(onStack);
+        adjacent.removeAll(coalescedNodes);
+        return adjacent;
+    }
+
+    private Set<Move> nodeMoves(Register register) {
+        Set<Move> nodeMoves = new LinkedHashSet<>();
+        for (Move move : moveList.getOrDefault(register, Set.of())) {
+            if (activeMoves.contains(move) || worklistMoves.contains(move)) nodeMoves.add(move);
+        }
+        return nodeMoves;
+    }
+
+    private boolean isMoveRelated(Register register) {
+        return !nodeMoves(register).isEmpty();
+    }
+
+    private void simplify() {
+        Register register = simplifyWorklist.iterator().next();
+        simplifyWorklist.remove(register);
+        selectStack.push(register);
+        onStack.add(register);
+        for (Register neighbor : adjacent(register)) {
+            decrementDegree(neighbor);
+        }
+    }
+
+    private void decrementDegree(Register register) {
+        if (isPrecolored(register)) return;
+        int d = degree.get(register);
+        degree.put(register, d - 1);
+        if (d == registerCount) {
+            Set<Register> nodes = adjacent(register);
+            nodes.add(register);
+            enableMoves(nodes);
+            spillWorklist.remove(register);
+            if (isMoveRelated(register)) {
+                freezeWorklist.add(register);
+            } else {
+                simplifyWorklist.add(register);
+            }
+        }
+    }
+
+    private void enableMoves(Set<Register> nodes) {
+        for (Register node : nodes) {
+            for (Move move : nodeMoves(node)) {
+                if (activeMoves.remove(move)) worklistMoves.add(move);
+            }
+        }
+    }
+
+    private void coalesce() {
+        Move move = worklistMoves.iterator().next();
+        worklistMoves.remove(move);
+        Register x = alias(move.source());
+        Register y = alias(move.destination());
+        // a precolored side is always kept
+        Register u = isPrecolored(y) ? y : x;
+        Register v = isPrecolored(y) ? x : y;
+
+        if (u.equals(v)) {
+            coalescedMoves.add(move);
+            addWorklist(u);
+        } else if (isPrecolored(v) || interferes(u, v)) {
+            constrainedMoves.add(move);
+            addWorklist(u);
+            addWorklist(v);
+        } else if (isPrecolored(u) && adjacent(v).stream().allMatch(t -> canMerge(t, u))
+                || !isPrecolored(u) && isConservative(u, v)) {
+            coalescedMoves.add(move);
+            combine(u, v);
+            addWorklist(u);
+        } else {
+            activeMoves.add(move);
+        }
+    }
+
+    private void addWorklist(Register register) {
+        if (!isPrecolored(register) && !isMoveRelated(register) && degree.get(register) < registerCount) {
+            freezeWorklist.remove(register);
+            simplifyWorklist.add(register);
+        }
+    }
+
+    // George: the neighbor t of a temp doesn't get in the way of merging the temp into the precolored register
+    private boolean canMerge(Register t, Register precolored) {
+        return degree.get(t) < registerCount || isPrecolored(t) || interferes(t, precolored);
+    }
+
+    // Briggs: the merged node has fewer than K neighbors of significant degree, so it can still be simplified
+    private boolean isConservative(Register u, Register v) {
+        Set<Register> nodes = adjacent(u);
+        nodes.addAll(adjacent(v));
+        int significant = 0;
+        for (Register node : nodes) {
+            if (degree.get(node) >= registerCount) significant++;
+        }
+        return significant < registerCount;
+    }
+
+    private Register alias(Register register) {
+        while (coalescedNodes.contains(register)) {
+            register = alias.get(register);
+        }
+        return register;
+    }
+
+    private void combine(Register u, Register v) {
+        if (!freezeWorklist.remove(v)) {
+            spillWorklist.remove(v);
+        }
+        coalescedNodes.add(v);
+        alias.put(v, u);
+        moveList.computeIfAbsent(u, _ -> new LinkedHashSet<>()).addAll(moveList.getOrDefault(v, Set.of()));
+        enableMoves(Set.of(v));
+        for (Register t : adjacent(v)) {
+            addEdge(t, u);
+            decrementDegree(t);
+        }
+        if (!isPrecolored(u) && degree.get(u) >= registerCount && freezeWorklist.remove(u)) {
+            spillWorklist.add(u);
+        }
+    }
+
+    private void freeze() {
+        Register register = freezeWorklist.iterator().next();
+        freezeWorklist.remove(register);
+        simplifyWorklist.add(register);
+        freezeMoves(register);
+    }
+
+    private void freezeMoves(Register u) {
+        for (Move move : nodeMoves(u)) {
+            Register x = alias(move.source());
+            Register y = alias(move.destination());
+            Register v = y.equals(alias(u)) ? x : y;
+            activeMoves.remove(move);
+            frozenMoves.add(move);
+            if (!isPrecolored(v) && nodeMoves(v).isEmpty() && degree.get(v) < registerCount
+                    && freezeWorklist.remove(v)) {
+                simplifyWorklist.add(v);
+            }
+        }
+    }
+
+    // Cheapest per neighbor: spilling it relieves the most pressure for the least loads and stores
+    private void selectSpill() {
+        Register register = spillWorklist.stream()
+                .min(Comparator.<Register>comparingDouble(r -> spillCosts.getOrDefault(r, 0.0) / degree.get(r))
+                        .thenComparing(Register::toString))
+                .orElseThrow();
+        spillWorklist.remove(register);
+        simplifyWorklist.add(register);
+        freezeMoves(register);
+    }
+
+    private void assignColors() {
+        while (!selectStack.isEmpty()) {
+            Register register = selectStack.pop();
+            onStack.remove(register);
+            Set<Integer> usedColors = new HashSet<>();
+            for (Register neighbor : adjacencyList.get(register)) {
+                Register colored = alias(neighbor);
+                if (coloredNodes.contains(colored) || isPrecolored(colored)) usedColors.add(color.get(colored));
+            }
+            int free = 0;
+            while (usedColors.contains(free)) free++;
+            if (free >= registerCount) {
+                spilledNodes.add(register);
+            } else {
+                coloredNodes.add(register);
+                color.put(register, free);
+            }
+        }
+        for (Register register : coalescedNodes) {
+            Register representative = alias(register);
+            if (spilledNodes.contains(representative)) {
+                spilledNodes.add(register);
+            } else {
+                color.put(register, color.get(representative));
+            }
+        }
+    }
+
+    private record Move(Register source, Register destination) {
+    }
+}
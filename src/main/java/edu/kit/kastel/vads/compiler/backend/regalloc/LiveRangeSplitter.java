@@ -0,0 +1,112 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.AasmRegisterAllocator;
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.mir.LoopNesting.Loop;
+
+import java.util.*;
+
+/// Splits the live ranges of temps at loop boundaries, so that spilling a temp is no longer all or nothing.
+///
+/// Every temp that is live into a loop or out of it gets a new name inside the loop: the old temp is copied
+/// into the new one on the edges entering the loop and back on the edges leaving it. The allocator can then
+/// keep a value in a register in a hot loop and spill it only where the pressure is high, e.g. a value that
+/// is live through a loop without being used there costs just the copies around the loop once spilled.
+/// If both parts get the same register, the copies are coalesced away.
+///
+/// Loops are split from the outside in, so a temp of a nested loop is split again at the inner loop.
+public class LiveRangeSplitter {
+    private final AasmRegisterAllocator allocator;
+
+    public LiveRangeSplitter(AasmRegisterAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public void split(MachineFunction function) {
+        for (Loop loop : new LoopNesting(function).loops()) {
+            split(function, loop);
+        }
+    }
+
+    private void split(MachineFunction function, Loop loop) {
+        Map<MachineBasicBlock, Set<Register>> liveIn = liveIn(function);
+
+        List<MachineBasicBlock[]> entries = new ArrayList<>();
+        for (MachineBasicBlock predecessor : loop.header().predecessors()) {
+            if (!loop.contains(predecessor)) {
+                entries.add(new MachineBasicBlock[]{predecessor, loop.header()});
+            }
+        }
+        List<MachineBasicBlock[]> exits = new ArrayList<>();
+        for (MachineBasicBlock block : loop.blocks()) {
+            for (MachineBasicBlock successor : block.successors()) {
+                if (!loop.contains(successor)) {
+                    exits.add(new MachineBasicBlock[]{block, successor});
+                }
+            }
+        }
+
+        Set<Register> crossing = new LinkedHashSet<>(liveIn.get(loop.header()));
+        for (MachineBasicBlock[] exit : exits) {
+            crossing.addAll(liveIn.get(exit[1]));
+        }
+
+        Map<Register, Register> renamed = new LinkedHashMap<>();
+        for (Register register : crossing) {
+            renamed.put(register, this.allocator.newRegister());
+        }
+        for (MachineBasicBlock block : loop.blocks()) {
+            for (MachineInstruction instruction : block.instructions()) {
+                renamed.forEach(instruction::replaceRegister);
+            }
+        }
+
+        for (MachineBasicBlock[] entry : entries) {
+            List<MachineInstruction> copies = new ArrayList<>();
+            renamed.forEach((register, inLoop) -> {
+                if (liveIn.get(loop.header()).contains(register)) {
+                    copies.add(new MachineInstruction(Opcode.MOV, register, inLoop));
+                }
+            });
+            function.insertOnEdge(entry[0], entry[1], copies);
+        }
+        for (MachineBasicBlock[] exit : exits) {
+            List<MachineInstruction> copies = new ArrayList<>();
+            renamed.forEach((register, inLoop) -> {
+                if (liveIn.get(exit[1]).contains(register)) {
+                    copies.add(new MachineInstruction(Opcode.MOV, inLoop, register));
+                }
+            });
+            function.insertOnEdge(exit[0], exit[1], copies);
+        }
+    }
+
+    // Temps live at the start of each block, iterated backwards to a fixed point
+    private static Map<MachineBasicBlock, Set<Register>> liveIn(MachineFunction function) {
+        Map<MachineBasicBlock, Set<Register>> liveIn = new HashMap<>();
+        for (MachineBasicBlock block : function.blocks()) {
+            liveIn.put(block, new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (MachineBasicBlock block : function.blocks().reversed()) {
+                Set<Register> live = new HashSet<>();
+                for (MachineBasicBlock successor : block.successors()) {
+                    live.addAll(liveIn.get(successor));
+                }
+                for (MachineInstruction instruction : block.instructions().reversed()) {
+                    live.remove(instruction.def());
+                    for (Register use : instruction.uses()) {
+                        if (use instanceof VirtualRegister) {
+                            live.add(use);
+                        }
+                    }
+                }
+                changed |= liveIn.get(block).addAll(live);
+            }
+        }
+        return liveIn;
+    }
+}
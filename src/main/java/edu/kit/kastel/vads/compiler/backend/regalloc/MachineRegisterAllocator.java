@@ -0,0 +1,19 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+
+import java.util.Map;
+
+/// Assigns physical registers and stack slots to the temps of a function, after instruction selection.
+///
+/// Unlike a [RegisterAllocator], which names the values of the IR graph, this works on the liveness of the
+/// machine instructions. A spilled temp is staged in R14 or R15 by the [RegisterRewriter].
+public interface MachineRegisterAllocator {
+
+    boolean spills();
+
+    /// {@return the spilled temps that are recomputed from their constant at every use}
+    Map<Register, Immediate> rematerializations();
+
+    Map<Register, PhysicalRegister> allocate();
+}
@@ -0,0 +1,322 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleGraph;
+
+import java.util.*;
+
+import static edu.kit.kastel.vads.compiler.backend.regalloc.RegisterAllocationSupport.*;
+
+/// Register allocation as a partitioned boolean quadratic problem (Scholz and Eckstein).
+///
+/// Every temp picks one of K+1 options: option 0 spills it, option i+1 puts it in the register of color i.
+/// - The cost vector of a temp holds its spill cost for option 0. A register is infinitely expensive if the temp
+///   interferes with a precolored register that has it (idiv, shift counts, the return value), and a move
+///   to or from a precolored register costs its frequency in every other register.
+/// - The cost matrix of two interfering temps is infinite for the same register, the matrix of a move costs its
+///   frequency if the two sides end up in different registers.
+///
+/// The heuristic solver reduces the graph node by node and pushes the nodes on a stack:
+/// - R0: a node without edges is decided on its own vector later.
+/// - R1: a node with one neighbor folds its cheapest choice for every option of the neighbor into its vector.
+/// - R2: a node with two neighbors folds into the matrix between them.
+/// - RN: otherwise the node of highest degree is decided right away, on its vector and its neighbors' best cases,
+///   and its choice is added to the neighbors' vectors.
+/// Popping the stack then picks the cheapest option of every node given the choices of its reduced neighbors.
+/// R0, R1 and R2 are optimal, only RN guesses.
+///
+/// Byte registers need no constraint: with a REX prefix setcc can write the low byte of every register.
+/// Like with [IteratedRegisterCoalescing] an actual spill reserves R14 and R15 and solves again with two
+/// registers less.
+public class PbqpAllocator implements MachineRegisterAllocator {
+    private static final double INFINITY = Double.POSITIVE_INFINITY;
+    private static final int SPILL = 0;
+
+    private final SimpleGraph<Register, DefaultEdge> interferenceGraph;
+    private final Map<Register, Map<Register, Double>> moveFrequencies = new LinkedHashMap<>();
+    private final Map<Register, Double> spillCosts;
+    private final Map<Register, Immediate> constants;
+    private final Set<Register> spilled = new LinkedHashSet<>();
+    private final Map<Register, Integer> coloring = new HashMap<>();
+    private int registerCount;
+
+    // The reduced problem, matrices are stored once in each direction
+    private final Map<Register, double[]> costs = new LinkedHashMap<>();
+    private final Map<Register, Map<Register, double[][]>> matrices = new HashMap<>();
+    private final Deque<Reduction> reductions = new ArrayDeque<>();
+    private final Map<Register, Integer> selection = new HashMap<>();
+
+    public PbqpAllocator(List<LivenessLine> livenessLines) {
+        this.interferenceGraph = interferenceGraph(livenessLines);
+        this.constants = constants(livenessLines);
+        this.spillCosts = spillCosts(livenessLines, constants);
+        for (LivenessLine livenessLine : livenessLines) {
+            if (!livenessLine.instruction().isRegisterMove()) continue;
+            Register source = (Register) livenessLine.instruction().operand(0);
+            Register destination = (Register) livenessLine.instruction().operand(1);
+            if (source.equals(destination) || interferenceGraph.containsEdge(source, destination)) continue;
+            double frequency = Math.pow(10, livenessLine.loopDepth);
+            moveFrequencies.computeIfAbsent(source, _ -> new LinkedHashMap<>()).merge(destination, frequency, Double::sum);
+        }
+
+        this.registerCount = X86_64PhysicalRegisters.registerCount();
+        solve();
+        // The scratch registers are only needed to stage spilled values
+        if (!spilled.isEmpty()) {
+            this.registerCount -= X86_64PhysicalRegisters.SCRATCH_REGISTERS;
+            solve();
+        }
+    }
+
+    @Override
+    public boolean spills() {
+        return !spilled.isEmpty();
+    }
+
+    @Override
+    public Map<Register, Immediate> rematerializations() {
+        Map<Register, Immediate> rematerialized = new HashMap<>();
+        for (Register register : spilled) {
+            if (constants.containsKey(register)) rematerialized.put(register, constants.get(register));
+        }
+        return rematerialized;
+    }
+
+    @Override
+    public Map<Register, PhysicalRegister> allocate() {
+        Map<Register, PhysicalRegister> physicalRegisters = new HashMap<>();
+        coloring.forEach((register, color) -> physicalRegisters.put(register, X86_64PhysicalRegisters.get(color, registerCount)));
+
+        Map<Register, Set<Register>> partners = new HashMap<>();
+        moveFrequencies.forEach((source, destinations) -> destinations.keySet().forEach(destination -> {
+            partners.computeIfAbsent(source, _ -> new LinkedHashSet<>()).add(destination);
+            partners.computeIfAbsent(destination, _ -> new LinkedHashSet<>()).add(source);
+        }));
+        stackSlots(spilled, interferenceGraph, partners, constants).forEach((register, slot) ->
+                physicalRegisters.put(register, X86_64PhysicalRegisters.get(registerCount + slot, registerCount)));
+
+        return physicalRegisters;
+    }
+
+    private void solve() {
+        costs.clear();
+        matrices.clear();
+        reductions.clear();
+        selection.clear();
+        spilled.clear();
+        coloring.clear();
+
+        build();
+        reduce();
+        backPropagate();
+
+        for (Register register : interferenceGraph.vertexSet()) {
+            if (isPrecolored(register)) {
+                coloring.put(register, X86_64PhysicalRegisters.indexOf((PhysicalRegister) register));
+            } else if (selection.get(register) == SPILL) {
+                spilled.add(register);
+            } else {
+                coloring.put(register, selection.get(register) - 1);
+            }
+        }
+    }
+
+    private void build() {
+        for (Register register : interferenceGraph.vertexSet()) {
+            if (isPrecolored(register)) continue;
+            double[] vector = new double[registerCount + 1];
+            vector[SPILL] = spillCosts.getOrDefault(register, 0.0);
+            for (Register neighbor : Graphs.neighborListOf(interferenceGraph, register)) {
+                if (isPrecolored(neighbor) && option(neighbor) <= registerCount) vector[option(neighbor)] = INFINITY;
+            }
+            costs.put(register, vector);
+        }
+
+        for (DefaultEdge edge : interferenceGraph.edgeSet()) {
+            Register u = interferenceGraph.getEdgeSource(edge);
+            Register v = interferenceGraph.getEdgeTarget(edge);
+            if (isPrecolored(u) || isPrecolored(v)) continue;
+            double[][] matrix = new double[registerCount + 1][registerCount + 1];
+            for (int i = 1; i <= registerCount; i++) {
+                matrix[i][i] = INFINITY;
+            }
+            addMatrix(u, v, matrix);
+        }
+
+        moveFrequencies.forEach((source, destinations) -> destinations.forEach((destination, frequency) -> {
+            if (isPrecolored(source) && isPrecolored(destination)) return;
+            if (isPrecolored(source) || isPrecolored(destination)) {
+                Register temp = isPrecolored(source) ? destination : source;
+                int fixed = option(isPrecolored(source) ? source : destination);
+                double[] vector = costs.get(temp);
+                for (int i = 1; i <= registerCount; i++) {
+                    if (i != fixed) vector[i] += frequency;
+                }
+                return;
+            }
+            double[][] matrix = new double[registerCount + 1][registerCount + 1];
+            for (int i = 1; i <= registerCount; i++) {
+                for (int j = 1; j <= registerCount; j++) {
+                    if (i != j) matrix[i][j] = frequency;
+                }
+            }
+            addMatrix(source, destination, matrix);
+        }));
+    }
+
+    private void reduce() {
+        while (!costs.isEmpty()) {
+            Register node = null;
+            for (Register register : costs.keySet()) {
+                if (degree(register) <= 2) {
+                    node = register;
+                    break;
+                }
+            }
+            if (node == null) {
+                reduceN();
+                continue;
+            }
+            List<Register> neighbors = neighbors(node);
+            double[] vector = costs.get(node);
+            switch (neighbors.size()) {
+                case 0 -> {
+                }
+                case 1 -> {
+                    Register y = neighbors.getFirst();
+                    double[][] matrix = matrix(node, y);
+                    double[] yVector = costs.get(y);
+                    for (int j = 0; j < yVector.length; j++) {
+                        double best = INFINITY;
+                        for (int i = 0; i < vector.length; i++) {
+                            best = Math.min(best, vector[i] + matrix[i][j]);
+                        }
+                        yVector[j] += best;
+                    }
+                }
+                default -> {
+                    Register y = neighbors.get(0);
+                    Register z = neighbors.get(1);
+                    double[][] xy = matrix(node, y);
+                    double[][] xz = matrix(node, z);
+                    double[][] yz = new double[registerCount + 1][registerCount + 1];
+                    for (int j = 0; j <= registerCount; j++) {
+                        for (int k = 0; k <= registerCount; k++) {
+                            double best = INFINITY;
+                            for (int i = 0; i < vector.length; i++) {
+                                best = Math.min(best, vector[i] + xy[i][j] + xz[i][k]);
+                            }
+                            yz[j][k] = best;
+                        }
+                    }
+                    addMatrix(y, z, yz);
+                }
+            }
+            List<double[][]> neighborMatrices = new ArrayList<>();
+            for (Register neighbor : neighbors) {
+                neighborMatrices.add(matrix(node, neighbor));
+            }
+            reductions.push(new Reduction(node, vector, neighbors, neighborMatrices));
+            remove(node);
+        }
+    }
+
+    // RN: decide the node of highest degree on its own costs and the best case of every neighbor
+    private void reduceN() {
+        Register node = costs.keySet().stream()
+                .max(Comparator.<Register>comparingInt(this::degree).thenComparing(Register::toString, Comparator.reverseOrder()))
+                .orElseThrow();
+        double[] vector = costs.get(node);
+        List<Register> neighbors = neighbors(node);
+        int choice = SPILL;
+        double choiceCost = INFINITY;
+        for (int i = 0; i < vector.length; i++) {
+            double cost = vector[i];
+            for (Register neighbor : neighbors) {
+                double[][] matrix = matrix(node, neighbor);
+                double[] neighborVector = costs.get(neighbor);
+                double best = INFINITY;
+                for (int j = 0; j < neighborVector.length; j++) {
+                    best = Math.min(best, matrix[i][j] + neighborVector[j]);
+                }
+                cost += best;
+            }
+            if (cost < choiceCost) {
+                choice = i;
+                choiceCost = cost;
+            }
+        }
+        for (Register neighbor : neighbors) {
+            double[][] matrix = matrix(node, neighbor);
+            double[] neighborVector = costs.get(neighbor);
+            for (int j = 0; j < neighborVector.length; j++) {
+                neighborVector[j] += matrix[choice][j];
+            }
+        }
+        selection.put(node, choice);
+        remove(node);
+    }
+
+    private void backPropagate() {
+        while (!reductions.isEmpty()) {
+            Reduction reduction = reductions.pop();
+            int choice = SPILL;
+            double choiceCost = INFINITY;
+            for (int i = 0; i < reduction.costs().length; i++) {
+                double cost = reduction.costs()[i];
+                for (int n = 0; n < reduction.neighbors().size(); n++) {
+                    cost += reduction.matrices().get(n)[i][selection.get(reduction.neighbors().get(n))];
+                }
+                if (cost < choiceCost) {
+                    choice = i;
+                    choiceCost = cost;
+                }
+            }
+            selection.put(reduction.node(), choice);
+        }
+    }
+
+    private void addMatrix(Register u, Register v, double[][] matrix) {
+        double[][] uv = matrices.computeIfAbsent(u, _ -> new LinkedHashMap<>())
+                .computeIfAbsent(v, _ -> new double[registerCount + 1][registerCount + 1]);
+        double[][] vu = matrices.computeIfAbsent(v, _ -> new LinkedHashMap<>())
+                .computeIfAbsent(u, _ -> new double[registerCount + 1][registerCount + 1]);
+        for (int i = 0; i <= registerCount; i++) {
+            for (int j = 0; j <= registerCount; j++) {
+                uv[i][j] += matrix[i][j];
+                vu[j][i] += matrix[i][j];
+            }
+        }
+    }
+
+    private double[][] matrix(Register u, Register v) {
+        return matrices.get(u).get(v);
+    }
+
+    private List<Register> neighbors(Register register) {
+        return List.copyOf(matrices.getOrDefault(register, Map.of()).keySet());
+    }
+
+    private int degree(Register register) {
+        return matrices.getOrDefault(register, Map.of()).size();
+    }
+
+    private void remove(Register register) {
+        for (Register neighbor : neighbors(register)) {
+            matrices.get(neighbor).remove(register);
+        }
+        matrices.remove(register);
+        costs.remove(register);
+    }
+
+    private static int option(Register precolored) {
+        return X86_64PhysicalRegisters.indexOf((PhysicalRegister) precolored) + 1;
+    }
+
+    // A reduced node with the costs and matrices it had when it was removed
+    private record Reduction(Register node, double[] costs, List<Register> neighbors, List<double[][]> matrices) {
+    }
+}
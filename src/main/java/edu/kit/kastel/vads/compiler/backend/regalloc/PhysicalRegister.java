@@ -21,6 +21,13 @@ public class PhysicalRegister implements Register {
         return X86_64PhysicalRegisters.getAssemblyName(register, stackOffset);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PhysicalRegister that)) return false;
+
+        return register == that.register && stackOffset == that.stackOffset;
+    }
+
     @Override
     public int hashCode() {
         return Objects.hashCode(register);
@@ -1,7 +1,7 @@
 package edu.kit.kastel.vads.compiler.backend.regalloc;
 
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
 import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
-import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.Operation;
 import org.jgrapht.Graphs;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.SimpleGraph;
@@ -9,59 +9,166 @@ import org.jgrapht.graph.SimpleGraph;
 import java.util.*;
 import java.util.stream.Collectors;
 
-public class PhysicalRegisterAllocator {
+import static edu.kit.kastel.vads.compiler.backend.regalloc.RegisterAllocationSupport.*;
+
+public class PhysicalRegisterAllocator implements MachineRegisterAllocator {
 
     //1. Get the interference Graph from liveness information
     //2. Order nodes using maximum cardinality ordering
-    //2.1: Identify Special Registers (DIV and RET) for precoloring in the ordering
+    //2.1: Identify Special Registers (DIV, RET and shift counts) for precoloring in the ordering:
+    //     the physical registers an instruction fixes are vertices with their own color, ordered first
     //3. Greedy-color the graph using the elimination ordering
-    //4. Spill if more colors are used than available registers
-    //5. (optional) Coalesce non-interfering move-related nodes greedily
+    //4. Spill if more colors are used than available registers, R14 and R15 are then reserved for staging
+    //4.1: Spill cost of a temp: its uses and defs, each weighted by 10^loopDepth of the line
+    //4.2: At every line that needs more registers than available, spill the cheapest temps live there
+    //4.3: Recolor the graph without the spilled temps, spill the cheapest temp with a too high color until it fits
+    //4.4: Temps that only hold a constant are rematerialized instead: they get no stack slot, each use reads the
+    //     immediate or loads it into a scratch register. This only costs the uses that can't take an immediate.
+    //5. Coalesce non-interfering move-related nodes greedily
+    //5.1: Biased coloring: prefer a free color of an already colored move partner
+    //5.2: Afterwards recolor one side of each remaining move to the color of the other, if no neighbor has it
+    //Coalescing only ever picks colors that are already in use, so it never adds registers and the
+    //interference graph stays untouched (and chordal). Moves between registers of the same color are
+    //dropped by the RegisterRewriter.
 
     //frier.dich();
 
     private final List<LivenessLine> livenessLines;
     private final SimpleGraph<Register, DefaultEdge> interferenceGraph;
-    private final Map<Register, Integer> coloring;
+    private final Map<Register, Set<Register>> movePartners;
+    private final Map<Register, Double> spillCosts;
+    private final Map<Register, Immediate> constants;
+    private final Set<Register> spilled = new LinkedHashSet<>();
+    // Interference and moves of the spilled temps, they are removed from the graph
+    private final SimpleGraph<Register, DefaultEdge> spilledInterference = new SimpleGraph<>(DefaultEdge.class);
+    private final Map<Register, Set<Register>> spilledPartners = new HashMap<>();
+    private Map<Register, Integer> coloring;
+    private int registerCount;
 
     public PhysicalRegisterAllocator(List<LivenessLine> livenessLines) {
         this.livenessLines = livenessLines;
-        this.interferenceGraph = generateInterferenceGraph(livenessLines);
+        this.interferenceGraph = interferenceGraph(livenessLines);
+        this.movePartners = collectMovePartners(livenessLines);
+        this.constants = constants(livenessLines);
+        this.spillCosts = spillCosts(livenessLines, constants);
         this.coloring = generateGraphColoring();
+        this.registerCount = X86_64PhysicalRegisters.registerCount();
+        // The scratch registers are only needed to stage spilled values
+        if (colorCount(this.coloring) > this.registerCount) {
+            this.registerCount -= X86_64PhysicalRegisters.SCRATCH_REGISTERS;
+            spill();
+        }
+        coalesceMoves(this.coloring);
+    }
+
+    @Override
+    public boolean spills() {
+        return !spilled.isEmpty();
+    }
+
+    @Override
+    public Map<Register, Immediate> rematerializations() {
+        Map<Register, Immediate> rematerialized = new HashMap<>();
+        for (Register register : spilled) {
+            if (constants.containsKey(register)) rematerialized.put(register, constants.get(register));
+        }
+        return rematerialized;
     }
 
+    @Override
     public Map<Register, PhysicalRegister> allocate() {
         Map<Register, PhysicalRegister> physicalRegisters = new HashMap<>();
 
-        interferenceGraph.vertexSet().forEach(register -> physicalRegisters.put(register, X86_64PhysicalRegisters.get(coloring.get(register))));
+        interferenceGraph.vertexSet().forEach(register -> physicalRegisters.put(register, X86_64PhysicalRegisters.get(coloring.get(register), registerCount)));
+        stackSlots(spilled, spilledInterference, spilledPartners, constants).forEach((register, slot) ->
+                physicalRegisters.put(register, X86_64PhysicalRegisters.get(registerCount + slot, registerCount)));
 
         return physicalRegisters;
     }
 
-    private SimpleGraph<Register, DefaultEdge> generateInterferenceGraph(List<LivenessLine> livenessLines) {
-        SimpleGraph<Register, DefaultEdge> interferenceGraph = new SimpleGraph<>(DefaultEdge.class);
-
-        // add Registers as vertices
+    private void spill() {
         for (LivenessLine livenessLine : livenessLines) {
-            if (livenessLine.target.isValid()) {
-                interferenceGraph.addVertex(livenessLine.target);
+            Set<Register> pressure = registerPressure(livenessLine);
+            pressure.removeAll(spilled);
+            while (pressure.size() > registerCount) {
+                Register cheapest = cheapestSpill(pressure);
+                spilled.add(cheapest);
+                pressure.remove(cheapest);
             }
         }
+        removeSpilled();
+        coloring = generateGraphColoring();
+
+        // Pressure is the size of the largest clique, precolored registers and biased colors can still need more
+        while (colorCount(coloring) > registerCount) {
+            Set<Register> candidates = new HashSet<>();
+            coloring.forEach((register, color) -> {
+                if (color >= registerCount) candidates.add(register);
+            });
+            spilled.add(cheapestSpill(candidates));
+            removeSpilled();
+            coloring = generateGraphColoring();
+        }
+    }
+
+    // Registers occupied at a line: everything live into it, the target and the clobbers.
+    // The target of a move may share the register of its source.
+    private static Set<Register> registerPressure(LivenessLine livenessLine) {
+        Set<Register> pressure = new HashSet<>(livenessLine.liveInVariables);
+        if (livenessLine.target.isValid() && !(livenessLine.instruction().isRegisterMove()
+                && livenessLine.liveInVariables.contains((Register) livenessLine.instruction().operand(0)))) {
+            pressure.add(livenessLine.target);
+        }
+        pressure.addAll(livenessLine.clobbers);
+        return pressure;
+    }
 
-        // add RegisterLivenessInterference as edges
-        for (LivenessLine livenessLine : livenessLines) {
-            for (Register live1 : livenessLine.liveInVariables) {
-                for (Register live2 : livenessLine.liveInVariables) {
-                    if (!live1.equals(live2)) interferenceGraph.addEdge(live1, live2);
-                }
-            }
+    // Cheapest to spill, the one with more neighbors if equal, precolored registers can't be spilled
+    private Register cheapestSpill(Set<Register> candidates) {
+        return candidates.stream()
+                .filter(register -> !isPrecolored(register))
+                .min(Comparator.<Register>comparingDouble(register -> spillCosts.getOrDefault(register, 0.0))
+                        .thenComparing(Comparator.<Register>comparingInt(register -> interferenceGraph.degreeOf(register)).reversed())
+                        .thenComparing(Register::toString))
+                .orElseThrow(() -> new IllegalStateException("Only precolored registers left to spill"));
+    }
 
-            if (livenessLine.operation == Operation.BINARY_OP) {
-                interferenceGraph.addEdge(livenessLine.target, livenessLine.parameters.getLast());
+    private void removeSpilled() {
+        for (Register register : spilled) {
+            if (!interferenceGraph.containsVertex(register)) continue;
+            spilledInterference.addVertex(register);
+            for (Register neighbor : Graphs.neighborListOf(interferenceGraph, register)) {
+                spilledInterference.addVertex(neighbor);
+                spilledInterference.addEdge(register, neighbor);
             }
+            spilledPartners.put(register, new LinkedHashSet<>(movePartners.getOrDefault(register, Set.of())));
         }
+        interferenceGraph.removeAllVertices(spilled);
+        movePartners.keySet().removeAll(spilled);
+        movePartners.values().forEach(partners -> partners.removeAll(spilled));
+    }
+
+    private static int colorCount(Map<Register, Integer> coloring) {
+        return coloring.values().stream().mapToInt(color -> color + 1).max().orElse(0);
+    }
 
-        return interferenceGraph;
+    // Registers connected by a register to register move, both sides are colored by this allocator
+    private Map<Register, Set<Register>> collectMovePartners(List<LivenessLine> livenessLines) {
+        Map<Register, Set<Register>> partners = new HashMap<>();
+        for (LivenessLine livenessLine : livenessLines) {
+            if (!livenessLine.instruction().isRegisterMove()) continue;
+            Register source = (Register) livenessLine.instruction().operand(0);
+            Register destination = (Register) livenessLine.instruction().operand(1);
+            if (source.equals(destination)
+                    || !interferenceGraph.containsVertex(source)
+                    || !interferenceGraph.containsVertex(destination)
+                    || interferenceGraph.containsEdge(source, destination)) {
+                continue;
+            }
+            partners.computeIfAbsent(source, _ -> new LinkedHashSet<>()).add(destination);
+            partners.computeIfAbsent(destination, _ -> new LinkedHashSet<>()).add(source);
+        }
+        return partners;
     }
 
     // TODO: Check if this implementation actually also removes the node from the Map
@@ -84,14 +191,24 @@ public class PhysicalRegisterAllocator {
 
     private Queue<Register> maximumCardinalitySearch() {
         Queue<Register> simplicialEliminationOrdering = new LinkedList<>();
-        SimpleGraph<Register, DefaultEdge> graph = generateInterferenceGraph(this.livenessLines);
+        SimpleGraph<Register, DefaultEdge> graph = new SimpleGraph<>(DefaultEdge.class);
+        Graphs.addGraph(graph, this.interferenceGraph);
 
         Map<Register, Integer> nodeWeights = graph.vertexSet().stream().collect(Collectors.toMap(
                 register -> register,
                 _ -> 0
         ));
 
-        //TODO: Insert special registers into Queue , Increment neighboring weights by 1 for each
+        // Precolored registers come first, their neighbors are ordered as if they were already colored
+        for (Register register : graph.vertexSet().stream().filter(RegisterAllocationSupport::isPrecolored).toList()) {
+            nodeWeights.remove(register);
+            simplicialEliminationOrdering.add(register);
+            for (Register neighbor : Graphs.neighborSetOf(graph, register)) {
+                nodeWeights.computeIfPresent(neighbor, (_, weight) -> weight + 1);
+            }
+            graph.removeVertex(register);
+        }
+
         while (!nodeWeights.isEmpty()) {
             Register maxWeightVertex = pollMaxWeightNode(nodeWeights);
             simplicialEliminationOrdering.add(maxWeightVertex);
@@ -106,7 +223,7 @@ public class PhysicalRegisterAllocator {
         return simplicialEliminationOrdering;
     }
 
-    private int getValidColorFromNeighborhood(Set<Register> neighbors, Map<Register, Integer> coloring) {
+    private int getValidColorFromNeighborhood(Register register, Set<Register> neighbors, Map<Register, Integer> coloring) {
         Set<Integer> usedColors = new HashSet<>();
         int maxColor = coloring.size();
 
@@ -114,6 +231,12 @@ public class PhysicalRegisterAllocator {
             usedColors.add(coloring.get(neighbor));
         }
 
+        // a partner's color is already in use, taking it does not increase the number of colors
+        for (Register partner : movePartners.getOrDefault(register, Set.of())) {
+            int partnerColor = coloring.get(partner);
+            if (partnerColor >= 0 && !usedColors.contains(partnerColor)) return partnerColor;
+        }
+
         for (int i = 0; i < maxColor; i++) {
             if (!usedColors.contains(i)) return i;
         }
@@ -132,11 +255,52 @@ public class PhysicalRegisterAllocator {
         while (!simplicialEliminationOrdering.isEmpty()) {
             Register maxWeightVertex = simplicialEliminationOrdering.poll();
 
+            if (isPrecolored(maxWeightVertex)) {
+                coloring.put(maxWeightVertex, X86_64PhysicalRegisters.indexOf((PhysicalRegister) maxWeightVertex));
+                continue;
+            }
             Set<Register> neighbors = Graphs.neighborSetOf(interferenceGraph, maxWeightVertex);
-            coloring.put(maxWeightVertex, getValidColorFromNeighborhood(neighbors, coloring));
+            coloring.put(maxWeightVertex, getValidColorFromNeighborhood(maxWeightVertex, neighbors, coloring));
             //System.out.println(maxWeightVertex + " -- COLOR --> " + coloring.get(maxWeightVertex));
         }
 
         return coloring;
     }
+
+    // Moves whose partners got different colors: give one side the color of the other if none of its neighbors
+    // uses it. Recoloring can enable further moves, so repeat until nothing changes.
+    private void coalesceMoves(Map<Register, Integer> coloring) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Register, Set<Register>> entry : movePartners.entrySet()) {
+                Register register = entry.getKey();
+                if (isPrecolored(register)) continue;
+                for (Register partner : entry.getValue()) {
+                    int color = coloring.get(partner);
+                    if (coloring.get(register) == color || !isColorFree(register, color, coloring)) continue;
+                    // only recolor if this does not break a move that is already coalesced
+                    if (coalescedPartners(register, coloring.get(register), coloring)
+                            >= coalescedPartners(register, color, coloring)) continue;
+                    coloring.put(register, color);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private boolean isColorFree(Register register, int color, Map<Register, Integer> coloring) {
+        for (Register neighbor : Graphs.neighborSetOf(interferenceGraph, register)) {
+            if (coloring.get(neighbor) == color) return false;
+        }
+        return true;
+    }
+
+    private int coalescedPartners(Register register, int color, Map<Register, Integer> coloring) {
+        int count = 0;
+        for (Register partner : movePartners.getOrDefault(register, Set.of())) {
+            if (coloring.get(partner) == color) count++;
+        }
+        return count;
+    }
 }
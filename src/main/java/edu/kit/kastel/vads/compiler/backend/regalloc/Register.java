@@ -1,6 +1,8 @@
 package edu.kit.kastel.vads.compiler.backend.regalloc;
 
-public interface Register {
+import edu.kit.kastel.vads.compiler.backend.mir.Operand;
+
+public interface Register extends Operand {
     @Override
     public String toString();
 
@@ -0,0 +1,167 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+import edu.kit.kastel.vads.compiler.backend.mir.Operand;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.SimpleGraph;
+
+import java.util.*;
+
+/// Steps shared by the [MachineRegisterAllocator]s: the interference graph, spill costs, constants and stack slots.
+final class RegisterAllocationSupport {
+    private static final double REMATERIALIZATION_COST = 0.5;
+
+    private RegisterAllocationSupport() {
+
+    }
+
+    static SimpleGraph<Register, DefaultEdge> interferenceGraph(List<LivenessLine> livenessLines) {
+        SimpleGraph<Register, DefaultEdge> interferenceGraph = new SimpleGraph<>(DefaultEdge.class);
+
+        // add Registers as vertices
+        for (LivenessLine livenessLine : livenessLines) {
+            if (livenessLine.target.isValid()) {
+                interferenceGraph.addVertex(livenessLine.target);
+            }
+            // Registers that are read but never written (undefined values) need a color as well
+            for (Register parameter : livenessLine.parameters) {
+                interferenceGraph.addVertex(parameter);
+            }
+        }
+
+        // add RegisterLivenessInterference as edges
+        for (LivenessLine livenessLine : livenessLines) {
+            for (Register live1 : livenessLine.liveInVariables) {
+                for (Register live2 : livenessLine.liveInVariables) {
+                    if (!live1.equals(live2)) interferenceGraph.addEdge(live1, live2);
+                }
+            }
+
+            // A written register interferes with everything live across the write, even if its value is never used.
+            // The source of a move may share the register, it holds the same value.
+            if (livenessLine.target.isValid()) {
+                for (Register live : livenessLine.liveInVariables) {
+                    if (!live.equals(livenessLine.target) && !isMoveSource(livenessLine, live)) {
+                        interferenceGraph.addEdge(livenessLine.target, live);
+                    }
+                }
+            }
+
+            // Implicitly written registers (EAX and EDX by idiv) can't hold anything live at the instruction
+            for (Register clobber : livenessLine.clobbers) {
+                interferenceGraph.addVertex(clobber);
+                for (Register live : livenessLine.liveInVariables) {
+                    if (!live.equals(clobber)) interferenceGraph.addEdge(clobber, live);
+                }
+            }
+        }
+
+        return interferenceGraph;
+    }
+
+    // A temp costs a load or store for every use and def once it is spilled, lines in loops are executed more often.
+    // A rematerialized constant costs a cheap move for every use that needs it in a register.
+    static Map<Register, Double> spillCosts(List<LivenessLine> livenessLines, Map<Register, Immediate> constants) {
+        Map<Register, Double> costs = new HashMap<>();
+        for (LivenessLine livenessLine : livenessLines) {
+            double frequency = Math.pow(10, livenessLine.loopDepth);
+            MachineInstruction instruction = livenessLine.instruction();
+            for (Register parameter : livenessLine.parameters) {
+                if (!constants.containsKey(parameter)) {
+                    costs.merge(parameter, frequency, Double::sum);
+                } else if (!instruction.acceptsImmediate(instruction.operands().indexOf(parameter))) {
+                    costs.merge(parameter, frequency * REMATERIALIZATION_COST, Double::sum);
+                }
+            }
+            if (livenessLine.target.isValid() && !constants.containsKey(livenessLine.target)) {
+                costs.merge(livenessLine.target, frequency, Double::sum);
+            }
+        }
+        return costs;
+    }
+
+    // Temps whose every definition moves the same immediate into them, directly or through copies of other
+    // such temps (phi copies and split live ranges)
+    static Map<Register, Immediate> constants(List<LivenessLine> livenessLines) {
+        Map<Register, List<Operand>> sources = new HashMap<>();
+        Set<Register> variable = new HashSet<>();
+        for (LivenessLine livenessLine : livenessLines) {
+            Register target = livenessLine.target;
+            if (!target.isValid() || isPrecolored(target)) continue;
+            MachineInstruction instruction = livenessLine.instruction();
+            if (instruction.opcode() == Opcode.MOV
+                    && (instruction.operand(0) instanceof Immediate || instruction.isRegisterMove())) {
+                sources.computeIfAbsent(target, _ -> new ArrayList<>()).add(instruction.operand(0));
+            } else {
+                variable.add(target);
+            }
+        }
+
+        Map<Register, Immediate> constants = new HashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<Register, List<Operand>> entry : sources.entrySet()) {
+                if (variable.contains(entry.getKey()) || constants.containsKey(entry.getKey())) continue;
+                Set<Immediate> values = new HashSet<>();
+                boolean known = true;
+                for (Operand source : entry.getValue()) {
+                    if (source instanceof Immediate immediate) {
+                        values.add(immediate);
+                    } else if (constants.containsKey(source)) {
+                        values.add(constants.get(source));
+                    } else {
+                        known = false;
+                    }
+                }
+                if (known && values.size() == 1) {
+                    constants.put(entry.getKey(), values.iterator().next());
+                    changed = true;
+                }
+            }
+        }
+        return constants;
+    }
+
+    // Stack slots are colored like registers: spilled temps that don't interfere share a slot, preferably
+    // the slot of a move partner (the other part of a split live range), so that the copy is dropped.
+    // Rematerialized constants get no slot.
+    static Map<Register, Integer> stackSlots(Collection<Register> spilled, Graph<Register, DefaultEdge> interference,
+                                             Map<Register, Set<Register>> partners, Map<Register, Immediate> constants) {
+        Map<Register, Integer> slots = new HashMap<>();
+        for (Register register : spilled) {
+            if (constants.containsKey(register)) continue;
+            Set<Integer> usedSlots = new HashSet<>();
+            for (Register neighbor : Graphs.neighborSetOf(interference, register)) {
+                if (slots.containsKey(neighbor)) usedSlots.add(slots.get(neighbor));
+            }
+            Integer slot = null;
+            for (Register partner : partners.getOrDefault(register, Set.of())) {
+                Integer partnerSlot = slots.get(partner);
+                if (partnerSlot != null && !usedSlots.contains(partnerSlot)) {
+                    slot = partnerSlot;
+                    break;
+                }
+            }
+            if (slot == null) {
+                slot = 0;
+                while (usedSlots.contains(slot)) slot++;
+            }
+            slots.put(register, slot);
+        }
+        return slots;
+    }
+
+    static boolean isPrecolored(Register register) {
+        return register instanceof PhysicalRegister;
+    }
+
+    static boolean isMoveSource(LivenessLine livenessLine, Register register) {
+        return livenessLine.instruction().isRegisterMove() && livenessLine.instruction().operand(0).equals(register);
+    }
+}
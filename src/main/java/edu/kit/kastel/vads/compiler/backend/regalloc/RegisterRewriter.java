@@ -0,0 +1,200 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.*;
+
+/// Replaces the virtual registers of a [MachineFunction] with their allocated physical registers.
+///
+/// Spilled registers become [StackSlot]s. x86 allows at most one memory operand per instruction: one stack
+/// slot is used directly where the encoding allows it (`addl %eax, 4(%rsp)`, `cmpl $1, 4(%rsp)`, ...), a
+/// written destination is preferred, as it saves both the load and the store. Remaining spilled values are
+/// staged through the reserved scratch registers: sources are loaded into R14 (R15 for a second one) before the
+/// instruction, a spilled destination is computed in R15 and stored afterwards.
+/// Plain moves between a register and a stack slot are kept as loads and stores, moves between registers
+/// that were coalesced into the same location are dropped.
+///
+/// Rematerialized constants replace their temp at every use: as an immediate operand where the instruction
+/// takes one, as displacement in an address, otherwise they are moved into a scratch register like a spilled
+/// value. The move that defined the temp is dropped. A `lea` whose base and index are both constants computes a
+/// constant and becomes a move of it.
+public class RegisterRewriter {
+    private static final List<X86_64Register> SCRATCH = List.of(X86_64Register.R14, X86_64Register.R15);
+
+    private final Map<Register, PhysicalRegister> allocation;
+    private final Map<Register, Immediate> rematerialized;
+
+    public RegisterRewriter(Map<Register, PhysicalRegister> allocation) {
+        this(allocation, Map.of());
+    }
+
+    public RegisterRewriter(Map<Register, PhysicalRegister> allocation, Map<Register, Immediate> rematerialized) {
+        this.allocation = allocation;
+        this.rematerialized = rematerialized;
+    }
+
+    public void rewrite(MachineFunction function) {
+        int frameSize = 0;
+        for (MachineBasicBlock block : function.blocks()) {
+            List<MachineInstruction> rewritten = new ArrayList<>();
+            for (MachineInstruction instruction : block.instructions()) {
+                rewrite(instruction, rewritten);
+            }
+            block.instructions().clear();
+            block.instructions().addAll(rewritten);
+        }
+        for (PhysicalRegister register : this.allocation.values()) {
+            if (register.register == X86_64Register.SPILL) {
+                frameSize = Math.max(frameSize, register.stackOffset + X86_64PhysicalRegisters.REG_SIZE_B);
+            }
+        }
+        function.setFrameSize(frameSize);
+    }
+
+    private void rewrite(MachineInstruction instruction, List<MachineInstruction> out) {
+        if (instruction.opcode() == Opcode.MOV && this.rematerialized.containsKey(instruction.operand(1))) {
+            return;
+        }
+        Set<Integer> constants = new HashSet<>();
+        for (int i = 0; i < instruction.operands().size(); i++) {
+            if (this.rematerialized.containsKey(instruction.operand(i))) {
+                constants.add(i);
+            }
+            instruction.setOperand(i, location(instruction.operand(i)));
+        }
+
+        if (instruction.opcode() == Opcode.LEA && instruction.operand(0) instanceof Address address
+                && address.base() == null && address.index() == null) {
+            out.add(new MachineInstruction(Opcode.MOV, new Immediate(address.displacement()), instruction.operand(1)));
+            return;
+        }
+        if (instruction.opcode() == Opcode.MOV && instruction.operand(0).equals(instruction.operand(1))) {
+            return;
+        }
+        if (instruction.opcode() == Opcode.MOV
+                && !(isMemory(instruction.operand(0)) && isMemory(instruction.operand(1)))) {
+            out.add(instruction);
+            return;
+        }
+        // Copy between two stack slots, e.g. of a split live range
+        if (instruction.opcode() == Opcode.MOV) {
+            PhysicalRegister scratch = X86_64PhysicalRegisters.get(SCRATCH.getFirst());
+            out.add(new MachineInstruction(Opcode.MOV, instruction.operand(0), scratch));
+            out.add(new MachineInstruction(Opcode.MOV, scratch, instruction.operand(1)));
+            return;
+        }
+
+        List<MachineInstruction> after = new ArrayList<>();
+        Map<Operand, PhysicalRegister> staged = new HashMap<>();
+        int destination = instruction.destinationIndex();
+        int memoryOperand = memoryOperand(instruction);
+        for (int i = 0; i < instruction.operands().size(); i++) {
+            Operand operand = instruction.operand(i);
+            if (i == memoryOperand) {
+                continue;
+            }
+            if (operand instanceof Address address) {
+                instruction.setOperand(i, address.withRegisters(
+                        stageAddressRegister(address.base(), staged, out),
+                        stageAddressRegister(address.index(), staged, out)));
+                continue;
+            }
+            if (!(operand instanceof StackSlot) && !(constants.contains(i) && !instruction.acceptsImmediate(i))) {
+                continue;
+            }
+            boolean isDestination = i == destination && instruction.writes(i);
+            PhysicalRegister scratch = staged.get(operand);
+            if (scratch == null) {
+                // a written destination may reuse R15 even if a source was staged there, sources are read first
+                scratch = isDestination && staged.size() == SCRATCH.size()
+                        ? X86_64PhysicalRegisters.get(X86_64Register.R15)
+                        : X86_64PhysicalRegisters.get(SCRATCH.get(staged.size()));
+                if (instruction.reads(i)) {
+                    out.add(new MachineInstruction(Opcode.MOV, operand, scratch));
+                }
+                staged.put(operand, scratch);
+            }
+            instruction.setOperand(i, scratch);
+            if (isDestination) {
+                after.add(new MachineInstruction(Opcode.MOV, scratch, operand));
+            }
+        }
+        out.add(instruction);
+        out.addAll(after);
+    }
+
+    // The stack slot that can stay a memory operand, -1 if none. Addresses are memory operands themselves.
+    private static int memoryOperand(MachineInstruction instruction) {
+        if (instruction.operands().stream().anyMatch(operand -> operand instanceof Address)) {
+            return -1;
+        }
+        if (instruction.operands().isEmpty()) {
+            return -1;
+        }
+        int destination = instruction.destinationIndex();
+        if (instruction.writes(destination) && isMemory(instruction.operand(destination))
+                && instruction.acceptsMemory(destination)) {
+            return destination;
+        }
+        for (int i = 0; i < instruction.operands().size(); i++) {
+            if (isMemory(instruction.operand(i)) && instruction.acceptsMemory(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private @Nullable Register stageAddressRegister(@Nullable Register register, Map<Operand, PhysicalRegister> staged,
+                                          List<MachineInstruction> out) {
+        if (!(register instanceof PhysicalRegister physical) || physical.register != X86_64Register.SPILL) {
+            return register;
+        }
+        StackSlot slot = new StackSlot(physical.stackOffset);
+        PhysicalRegister scratch = staged.get(slot);
+        if (scratch == null) {
+            scratch = X86_64PhysicalRegisters.get(SCRATCH.get(staged.size()));
+            out.add(new MachineInstruction(Opcode.MOV, slot, scratch));
+            staged.put(slot, scratch);
+        }
+        return scratch;
+    }
+
+    private Operand location(Operand operand) {
+        return switch (operand) {
+            case PhysicalRegister physical -> physical;
+            case Register register when this.rematerialized.containsKey(register) -> this.rematerialized.get(register);
+            case Register register -> {
+                PhysicalRegister physical = this.allocation.get(register);
+                if (physical == null) {
+                    throw new IllegalStateException("No register allocated for " + register);
+                }
+                yield physical.register == X86_64Register.SPILL ? new StackSlot(physical.stackOffset) : physical;
+            }
+            // Spilled address registers are kept as spilled physical registers until they are staged
+            case Address address -> {
+                Immediate base = address.base() == null ? null : this.rematerialized.get(address.base());
+                Immediate index = address.index() == null ? null : this.rematerialized.get(address.index());
+                int displacement = address.displacement()
+                        + (base == null ? 0 : base.value())
+                        + (index == null ? 0 : index.value() * address.scale());
+                yield new Address(base == null ? allocated(address.base()) : null,
+                        index == null ? allocated(address.index()) : null,
+                        address.scale(), displacement);
+            }
+            default -> operand;
+        };
+    }
+
+    private @Nullable Register allocated(@Nullable Register register) {
+        if (register == null || register instanceof PhysicalRegister) {
+            return register;
+        }
+        return this.allocation.get(register);
+    }
+
+    private static boolean isMemory(Operand operand) {
+        return operand instanceof StackSlot;
+    }
+}
@@ -14,12 +14,14 @@ public class X86_64PhysicalRegisters {
     private static final Map<X86_64Register, PhysicalRegister> REGISTERS = new HashMap<>();
     private static final List<PhysicalRegister> ACCESSIBLE_REGISTERS = new ArrayList<>();
     public static final int REG_SIZE_B = 4;
+    // R14 and R15 are the last colors, a function that spills gives them up to stage its spilled values
+    public static final int SCRATCH_REGISTERS = 2;
 
     // Initialize the register map with enum values and physical register objects
     static {
         for (X86_64Register reg : X86_64Register.values()) {
             switch (reg) {
-                case RBP, RSP, RAX, RDX, R14, R15 -> REGISTERS.put(reg, new PhysicalRegister(reg));
+                case RBP, RSP -> REGISTERS.put(reg, new PhysicalRegister(reg));
                 default -> {
                     if (!(reg == X86_64Register.SPILL)) {
                         PhysicalRegister physicalRegister = new PhysicalRegister(reg);
@@ -42,13 +44,42 @@ public class X86_64PhysicalRegisters {
     }
 
     public static PhysicalRegister get(int index) {
-        if (index < 0) throw new IndexOutOfBoundsException();
+        return get(index, ACCESSIBLE_REGISTERS.size());
+    }
+
+    /**
+     * Gets the location of a color if only the first registers are available, all other colors are spilled.
+     *
+     * @param index The color
+     * @param registerCount The number of colors that are mapped to registers
+     * @return The register or the spilled stack slot of the color
+     */
+    public static PhysicalRegister get(int index, int registerCount) {
+        if (index < 0 || registerCount > ACCESSIBLE_REGISTERS.size()) throw new IndexOutOfBoundsException();
 
-        if (index < ACCESSIBLE_REGISTERS.size()) {
+        if (index < registerCount) {
             return ACCESSIBLE_REGISTERS.get(index);
         }
 
-        return new PhysicalRegister((index - ACCESSIBLE_REGISTERS.size()) * REG_SIZE_B);
+        return new PhysicalRegister((index - registerCount) * REG_SIZE_B);
+    }
+
+    /**
+     * Gets the color of a register that is fixed by an instruction, e.g. the operands of a division.
+     *
+     * @param register The physical register
+     * @return The color of the register, -1 if it can't be allocated
+     */
+    public static int indexOf(PhysicalRegister register) {
+        return ACCESSIBLE_REGISTERS.indexOf(register);
+    }
+
+    public static boolean isAllocatable(Register register) {
+        return !(register instanceof PhysicalRegister physical) || indexOf(physical) >= 0;
+    }
+
+    public static int registerCount() {
+        return ACCESSIBLE_REGISTERS.size();
     }
 
     public static String getAssemblyName(X86_64Register register) {
@@ -63,7 +94,7 @@ public class X86_64PhysicalRegisters {
      */
     public static String getAssemblyName(X86_64Register register, int stackOffset) {
         if (register == X86_64Register.SPILL && stackOffset >= 0) {
-            return (stackOffset * REG_SIZE_B) + "(" + getAssemblyName(X86_64Register.RSP) + ")";
+            return stackOffset + "(" + getAssemblyName(X86_64Register.RSP) + ")";
         }
 
         return switch (register) {
@@ -86,4 +117,36 @@ public class X86_64PhysicalRegisters {
             default -> throw new IllegalArgumentException("Unknown register: " + register);
         };
     }
+
+    /**
+     * Gets the 64-bit name of a register, as used in addressing modes.
+     *
+     * @param register The X86_64Register enum value
+     * @return The assembly representation of the full register
+     */
+    public static String getAssemblyName64(X86_64Register register) {
+        return switch (register) {
+            case SPILL -> throw new IllegalArgumentException("Spilled registers have no name");
+            default -> "%" + register.name().toLowerCase();
+        };
+    }
+
+    /**
+     * Gets the name of the lowest byte of a register, as written by setcc.
+     *
+     * @param register The X86_64Register enum value
+     * @return The assembly representation of the byte register
+     */
+    public static String getAssemblyName8(X86_64Register register) {
+        return switch (register) {
+            case RAX -> "%al";
+            case RBX -> "%bl";
+            case RCX -> "%cl";
+            case RDX -> "%dl";
+            case RSI -> "%sil";
+            case RDI -> "%dil";
+            case R8, R9, R10, R11, R12, R13, R14, R15 -> "%" + register.name().toLowerCase() + "b";
+            default -> throw new IllegalArgumentException("No byte register for: " + register);
+        };
+    }
 }
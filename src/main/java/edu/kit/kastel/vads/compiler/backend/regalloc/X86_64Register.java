@@ -1,9 +1,9 @@
 package edu.kit.kastel.vads.compiler.backend.regalloc;
 
 public enum X86_64Register {
-    RAX, // Stores quotient during div
+    RAX, // Stores quotient during div and the return value
     RBX,
-    RCX,
+    RCX, // Shift count
     RDX, // Stores remainder during div
     RSI,
     RDI,
@@ -13,8 +13,8 @@ public enum X86_64Register {
     R11,
     R12,
     R13,
-    R14, // Spill register source
-    R15, // Spill register destination
+    R14, // Spill register source, if the function spills
+    R15, // Spill register destination, if the function spills
     RSP, // Stack Pointer
     RBP, // Base pointer
     SPILL, // Spilled register
@@ -1,7 +1,7 @@
 package edu.kit.kastel.vads.compiler.backend.regalloc.liveness;
 
 import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
-import edu.kit.kastel.vads.compiler.ir.node.Node;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
 
 import java.util.HashSet;
 import java.util.List;
@@ -9,8 +9,8 @@ import java.util.stream.Collectors;
 
 public final class AssignmentLivenessLine extends LivenessLine {
 
-    public AssignmentLivenessLine(Node root, Operation operation, Register target, List<Register> parameters) {
-        this.rootNode = root;
+    public AssignmentLivenessLine(MachineInstruction instruction, Operation operation, Register target, List<Register> parameters) {
+        this.instruction = instruction;
         this.operation = operation;
         this.target = target;
         this.parameters = parameters;
@@ -24,6 +24,6 @@ public final class AssignmentLivenessLine extends LivenessLine {
                 .map(Register::toString)
                 .collect(Collectors.joining(", "));
 
-        return "Root: " + rootNode + " - " + target + " = " + operation + "(" + params + ")" + "Liveness Variables: " + liveInVariables;
+        return instruction + " - " + target + " = " + operation + "(" + params + ")" + "Liveness Variables: " + liveInVariables;
     }
 }
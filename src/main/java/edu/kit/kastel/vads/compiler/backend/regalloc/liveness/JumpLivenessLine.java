@@ -2,15 +2,16 @@ package edu.kit.kastel.vads.compiler.backend.regalloc.liveness;
 
 import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
 import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
-import edu.kit.kastel.vads.compiler.ir.node.Node;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineBasicBlock;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
 
 import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public final class JumpLivenessLine extends LivenessLine {
-    public JumpLivenessLine(Node root, Operation operation, List<Register> parameters, Node jumpTarget) {
-        this.rootNode = root;
+    public JumpLivenessLine(MachineInstruction instruction, Operation operation, List<Register> parameters, MachineBasicBlock jumpTarget) {
+        this.instruction = instruction;
         this.operation = operation;
         this.parameters = parameters;
         this.liveInVariables = new HashSet<Register>();
@@ -25,6 +26,6 @@ public final class JumpLivenessLine extends LivenessLine {
         String params = parameters.stream()
                 .map(Register::toString)
                 .collect(Collectors.joining(", "));
-        return "Root: " + rootNode + " - " + operation + "(" + params + ")" + "Jump Target: " + jumpTarget.toString() +  ", Liveness Variables: " + liveInVariables;
+        return instruction + " - " + operation + "(" + params + ")" + "Jump Target: " + jumpTarget.toString() +  ", Liveness Variables: " + liveInVariables;
     }
 }
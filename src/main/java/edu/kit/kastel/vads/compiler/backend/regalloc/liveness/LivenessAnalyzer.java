@@ -1,30 +1,31 @@
 package edu.kit.kastel.vads.compiler.backend.regalloc.liveness;
 
+import edu.kit.kastel.vads.compiler.backend.mir.Label;
+import edu.kit.kastel.vads.compiler.backend.mir.LoopNesting;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineBasicBlock;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineFunction;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
 import edu.kit.kastel.vads.compiler.backend.regalloc.*;
-import edu.kit.kastel.vads.compiler.ir.IrGraph;
-import edu.kit.kastel.vads.compiler.ir.node.*;
 
 import java.util.*;
 
-import static edu.kit.kastel.vads.compiler.ir.util.NodeSupport.predecessorSkipProj;
 
 public class LivenessAnalyzer {
-    //1. Initialize LivenessLines Array with the information from the IR graph and AasmRegisterAllocator (temps)
+    //1. Initialize LivenessLines Array with one line per machine instruction (temps are the virtual registers
+    //   and the allocatable physical registers an instruction fixes, including implicit operands)
     //2. Use Liveness Rules exhaustively on livenesslines array
     //3. Store liveness information in live-in field
     //4. Create Mapping with the temps to their live-in-temps for the interference graph
-    private final IrGraph irGraph;
-    private final Map<Node, Register> registers;
+    private final MachineFunction function;
     public List<LivenessLine> livenessLines;
-    public Map<Node, Integer> nodeLineNumbers;
+    public Map<MachineBasicBlock, Integer> blockLineNumbers;
     private int lineCount;
     private final Set<LivenessPredicate> livenessPredicates;
 
-    public LivenessAnalyzer(IrGraph graph, Map<Node, Register> registers) {
-        this.irGraph = graph;
-        this.registers = registers;
+    public LivenessAnalyzer(MachineFunction function) {
+        this.function = function;
         this.lineCount = 0;
-        this.nodeLineNumbers = new IdentityHashMap<>();
+        this.blockLineNumbers = new HashMap<>();
         this.livenessLines = new ArrayList<>();
         this.livenessPredicates = new HashSet<>();
     }
@@ -38,8 +39,6 @@ public class LivenessAnalyzer {
         generateLivenessPredicates();
         //Step 3: Use Liveness Predicates to fill out Liveness information on the programm lines
         useLivenessPredicates();
-
-        debugPrintLivenessLines();
     }
 
     private void generatePredicates() {
@@ -50,41 +49,50 @@ public class LivenessAnalyzer {
         while (stillChanging) {
             for (int k = 0; k < livenessLines.size(); k++) {
                 LivenessLine currentLine = livenessLines.get(k);
+                for (Register clobber : currentLine.clobbers) {
+                    livenessPredicates.add(predicateGenerator.def(k, clobber));
+                }
                 switch (currentLine.operation) {
                     //Rule J1
                     case Operation.BINARY_OP -> {
                         livenessPredicates.add(predicateGenerator.def(k, currentLine.target));
-                        livenessPredicates.add(predicateGenerator.use(k, currentLine.parameters.getFirst()));
-                        livenessPredicates.add(predicateGenerator.use(k, currentLine.parameters.getLast()));
+                        // Immediates and physical registers are not part of the line
+                        for (Register p : currentLine.parameters) {
+                            livenessPredicates.add(predicateGenerator.use(k, p));
+                        }
                         livenessPredicates.add(predicateGenerator.succ(k, k + 1));
                     }
                     //Rule J2
-                    case Operation.RETURN ->
-                            livenessPredicates.add(predicateGenerator.use(k, currentLine.parameters.getFirst()));
+                    case Operation.RETURN -> {
+                        for (Register p : currentLine.parameters) {
+                            livenessPredicates.add(predicateGenerator.use(k, p));
+                        }
+                    }
 
                     //Rule J3
                     case Operation.ASSIGN -> {
                         livenessPredicates.add(predicateGenerator.def(k, currentLine.target));
                         livenessPredicates.add(predicateGenerator.succ(k, k + 1));
                     }
-                    case Operation.PHI_ASSIGN -> {
+                    // Reads without writing, e.g. comparisons
+                    case Operation.USE -> {
                         for (Register p : currentLine.parameters) {
                             livenessPredicates.add(predicateGenerator.use(k, p));
-                            livenessPredicates.add(predicateGenerator.def(k, currentLine.target));
-                            livenessPredicates.add(predicateGenerator.succ(k, k + 1));
                         }
+                        livenessPredicates.add(predicateGenerator.succ(k, k + 1));
                     }
                     //Rule J4
                     case Operation.GOTO -> {
-                        Node target = currentLine.jumpTarget;
-                        int lineNumber = nodeLineNumbers.get(target);
+                        int lineNumber = blockLineNumbers.get(currentLine.jumpTarget);
                         livenessPredicates.add(predicateGenerator.succ(k, lineNumber));
                     }
                     //Rule J5
                     case Operation.CONDITIONAL_GOTO -> {
-                        livenessPredicates.add(predicateGenerator.use(k, currentLine.parameters.getFirst()));
+                        for (Register p : currentLine.parameters) {
+                            livenessPredicates.add(predicateGenerator.use(k, p));
+                        }
                         livenessPredicates.add(predicateGenerator.succ(k, k + 1));
-                        livenessPredicates.add(predicateGenerator.succ(k, nodeLineNumbers.get(currentLine.jumpTarget)));
+                        livenessPredicates.add(predicateGenerator.succ(k, blockLineNumbers.get(currentLine.jumpTarget)));
                     }
                 }
             }
@@ -100,39 +108,36 @@ public class LivenessAnalyzer {
     }
 
     private void generateLivenessPredicates() {
-        int predicatesCount = livenessPredicates.size();
-        boolean stillChanging = true;
         PredicateGenerator predicateGenerator = new PredicateGenerator();
+        // Index the predicates by line, so that rule K2 doesn't have to search all of them
+        Map<Integer, Set<Register>> live = new HashMap<>();
+        Map<Integer, Set<Register>> defs = new HashMap<>();
+        Map<Integer, List<Integer>> predecessors = new HashMap<>();
+        Deque<LivenessPredicate> worklist = new ArrayDeque<>();
 
-        while (stillChanging) {
-            Set<LivenessPredicate> livenessPredicates2 = new HashSet<>();
-            for (LivenessPredicate predicate : livenessPredicates) {
-
-                switch (predicate.type) {
-                    //Rule J1
-                    case LivenessPredicateType.USE ->
-                            livenessPredicates2.add(predicateGenerator.live(predicate.lineNumber, predicate.parameter));
-                    case LivenessPredicateType.SUCC -> {
-                        for (LivenessPredicate pred : livenessPredicates) {
-                            if (pred.type == LivenessPredicateType.LIVE && pred.lineNumber == predicate.succLineNumber & !(livenessPredicates.contains(predicateGenerator.def(predicate.lineNumber, pred.parameter)))) {
-                                livenessPredicates2.add(predicateGenerator.live(predicate.lineNumber, pred.parameter));
-                            }
-                        }
-                    }
-                    case LivenessPredicateType.DEF, LivenessPredicateType.LIVE -> {
-                    }
-                }
+        for (LivenessPredicate predicate : livenessPredicates) {
+            switch (predicate.type) {
+                //Rule K1
+                case LivenessPredicateType.USE -> worklist.add(predicateGenerator.live(predicate.lineNumber, predicate.parameter));
+                case LivenessPredicateType.SUCC ->
+                        predecessors.computeIfAbsent(predicate.succLineNumber, _ -> new ArrayList<>()).add(predicate.lineNumber);
+                case LivenessPredicateType.DEF ->
+                        defs.computeIfAbsent(predicate.lineNumber, _ -> new HashSet<>()).add(predicate.parameter);
+                case LivenessPredicateType.LIVE -> worklist.add(predicate);
             }
-            //Add new Predicates to predicates set
-            livenessPredicates.addAll(livenessPredicates2);
+        }
 
-            //If no predicates are added after iterating all lines, stop looking for predicates
-            if (predicatesCount == livenessPredicates.size()) {
-                stillChanging = false;
+        //Rule K2: live(l', x), succ(l, l'), !def(l, x) => live(l, x)
+        while (!worklist.isEmpty()) {
+            LivenessPredicate predicate = worklist.poll();
+            if (!live.computeIfAbsent(predicate.lineNumber, _ -> new HashSet<>()).add(predicate.parameter)) {
+                continue;
             }
-            //Else we set the new predicatescount for the next run
-            else {
-                predicatesCount = livenessPredicates.size();
+            livenessPredicates.add(predicate);
+            for (int predecessor : predecessors.getOrDefault(predicate.lineNumber, List.of())) {
+                if (!defs.getOrDefault(predecessor, Set.of()).contains(predicate.parameter)) {
+                    worklist.add(predicateGenerator.live(predecessor, predicate.parameter));
+                }
             }
         }
     }
@@ -146,143 +151,55 @@ public class LivenessAnalyzer {
     }
 
     private void fillLivenessInformation() {
-        Set<Node> visited = new HashSet<>();
-        scan(irGraph.endBlock(), visited);
-    }
-
-    private void scan(Node node, Set<Node> visited) {
-        Node block = node.block();
-        // TODO: Is it right that size equals 1 ? What if > 1 ?
-        if (node instanceof JumpNode && block.predecessors().size() == 1 && visited.add(node.block().predecessor(0))) {
-            scan(node.block().predecessor(0), visited);
+        for (MachineBasicBlock block : function.blocks()) {
+            blockLineNumbers.put(block, lineCount);
+            lineCount += block.instructions().size();
         }
-        if (!(node instanceof Phi || (node instanceof Block && node != irGraph.endBlock()))) {
-            for (Node predecessor : node.predecessors()) {
-                if (!visited.contains(predecessor)) {
-                    if (countAsVisited(node)) visited.add(predecessor);
-                    scan(predecessor, visited);
-                    // Even if it's a proj node, after the proj node is finished being visited all predecessors HAVE to be marked as visited
-                    visited.add(predecessor);
-                }
-            }
-            if (!visited.contains(node.block())) {
-                if (countAsVisited(node)) visited.add(node.block());
-                scan(node.block(), visited);
-                // Even if it's a proj node, after the proj node is finished being visited all predecessors HAVE to be marked as visited
-                visited.add(node.block());
+        LoopNesting loops = new LoopNesting(function);
+        for (MachineBasicBlock block : function.blocks()) {
+            for (MachineInstruction instruction : block.instructions()) {
+                LivenessLine line = line(instruction);
+                line.loopDepth = loops.depth(block);
+                livenessLines.add(line);
             }
         }
-//
-//        if (!(node instanceof Phi)) {
-//            for (Node predecessor : node.predecessors()) {
-//                if (visited.add(predecessor)) {
-//                    scan(predecessor, visited);
-//                }
-//            }
-//        }
-//        if (node instanceof JumpNode) {
-//            if (node.predecessors().isEmpty()) {
-//                for (Node pred : node.block().predecessors()) {
-//                    scan(pred, visited);
-//                }
-//            }
-//        }
+    }
 
-        switch (node) {
-            case BinaryOperationNode b -> {
-                List<Register> params = new ArrayList<>();
-                params.add(registers.get(predecessorSkipProj(b, BinaryOperationNode.LEFT)));
-                params.add(registers.get(predecessorSkipProj(b, BinaryOperationNode.RIGHT)));
-                setNodeLineNumber(b);
-                livenessLines.add(new AssignmentLivenessLine(b, Operation.BINARY_OP, registers.get(b), params));
-            }
-            case ReturnNode r -> {
-                List<Register> params = new ArrayList<>();
-                params.add(registers.get(predecessorSkipProj(r, ReturnNode.RESULT)));
-                int lineNumber = lineCount++;
-                setNodeLineNumber(r);
-                livenessLines.add(new NoAssignmentLivenessLine(Operation.RETURN, params));
+    private LivenessLine line(MachineInstruction instruction) {
+        // Physical registers are precolored temps, they interfere with everything live while they are
+        List<Register> params = new ArrayList<>();
+        List<Register> uses = new ArrayList<>(instruction.uses());
+        uses.addAll(instruction.implicitUses());
+        for (Register use : uses) {
+            if (X86_64PhysicalRegisters.isAllocatable(use) && !params.contains(use)) {
+                params.add(use);
             }
-            case ConstIntNode c -> {
-                setNodeLineNumber(c);
-                livenessLines.add(new AssignmentLivenessLine(c, Operation.ASSIGN, registers.get(c), List.of()));
-            }
-            case ConstBoolNode b -> {
-                setNodeLineNumber(b);
-                livenessLines.add(new AssignmentLivenessLine(b, Operation.ASSIGN, registers.get(b), List.of()));
-            }
-            case JumpNode j -> {
-                setNodeLineNumber(j);
-                Collection<Node> successors = irGraph.successors(j);
-                if (successors.isEmpty()) {
-                    // Handle the case where there are no successors
-                    // This might be a terminal jump or an error in graph construction
-                    throw new IllegalStateException("JumpNode has no successors: " + j);
-                }
-                Node successor = successors.iterator().next();
-                livenessLines.add(new JumpLivenessLine(j, Operation.GOTO, List.of(), successor));
-            }
-            case CondJumpNode cj -> {
-                List<Register> params = new ArrayList<>();
-                params.add(registers.get(cj.condition()));
-                setNodeLineNumber(cj);
-                livenessLines.add(new JumpLivenessLine(cj, Operation.CONDITIONAL_GOTO, params, irGraph.successors(cj).iterator().next()));
-            }
-            case Phi p -> {
-//              assert p.block().predecessors().size() = p.predecessors();
-                boolean onlySideEffects = p
-                        .predecessors()
-                        .stream()
-                        .allMatch(
-                                pred -> pred instanceof ProjNode &&
-                                        ((ProjNode) pred).projectionInfo() == ProjNode.SimpleProjectionInfo.SIDE_EFFECT
-                        );
-
-                if (onlySideEffects) break;
-
-                List<Register> params = new ArrayList<>();
-                //TODO: Maybe traverse block predecessors only if the phi has no other predecessors to solve case with mutliple phis in single block??
-
-                for (int i = 0; i < p.block().predecessors().size(); i++) {
-                    Node blockPred = p.block().predecessor(i);
-                    scan(blockPred, visited);
-                    params.add(registers.get(p.predecessors().get(i)));
+        }
+        Register target = instruction.def();
+
+        LivenessLine line = switch (instruction.opcode()) {
+            case RET -> new NoAssignmentLivenessLine(instruction, Operation.RETURN, params);
+            case JMP -> new JumpLivenessLine(instruction, Operation.GOTO, params, jumpTarget(instruction));
+            case JCC -> new JumpLivenessLine(instruction, Operation.CONDITIONAL_GOTO, params, jumpTarget(instruction));
+            default -> {
+                if (target == null || !X86_64PhysicalRegisters.isAllocatable(target)) {
+                    yield new NoAssignmentLivenessLine(instruction, Operation.USE, params);
                 }
-
-                setNodeLineNumber(p);
-                livenessLines.add(new AssignmentLivenessLine(p, Operation.PHI_ASSIGN, registers.get(p), params));
-            }
-            case Block _, ProjNode _, StartNode _, UndefinedNode _ -> {
-                // do nothing, skip line break
+                yield new AssignmentLivenessLine(instruction,
+                        params.isEmpty() ? Operation.ASSIGN : Operation.BINARY_OP, target, params);
             }
-            case CondExprNode _ ->
-                    throw new UnsupportedOperationException("Cond Expression Nodes should not exist in liveness analysis step anymore");
-        }
-    }
-
-    private void setNodeLineNumber(Node node) {
-        int nodeLineNumber = lineCount++;
-        nodeLineNumbers.put(node, nodeLineNumber);
-
-        if (!nodeLineNumbers.containsKey(node.block())) {
-            nodeLineNumbers.put(node.block(), nodeLineNumber);
-            return;
-        }
-
-        int blockLineNumber = nodeLineNumbers.get(node.block());
-        if (blockLineNumber > nodeLineNumber) {
-            nodeLineNumbers.put(node.block(), nodeLineNumber);
-        }
+        };
+        line.clobbers = List.copyOf(instruction.implicitDefs());
+        return line;
     }
 
-    private void debugPrintLivenessLines() {
-        System.out.println("\n Liveness lines:");
-        for (LivenessLine line : livenessLines) {
-            System.out.println(line);
+    private MachineBasicBlock jumpTarget(MachineInstruction instruction) {
+        Label label = (Label) instruction.operand(0);
+        for (MachineBasicBlock block : function.blocks()) {
+            if (block.label().equals(label)) {
+                return block;
+            }
         }
+        throw new IllegalStateException("Jump to unknown label " + label);
     }
-
-    private static boolean countAsVisited(Node node) {
-        return !(node instanceof ProjNode);
-    }
-}
\ No newline at end of file
+}
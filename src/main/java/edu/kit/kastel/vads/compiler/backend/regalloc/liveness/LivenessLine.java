@@ -2,17 +2,27 @@ package edu.kit.kastel.vads.compiler.backend.regalloc.liveness;
 
 import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
 
+import edu.kit.kastel.vads.compiler.backend.mir.MachineBasicBlock;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
+
 import java.util.List;
 import java.util.Set;
-import edu.kit.kastel.vads.compiler.ir.node.Node;
 
 public sealed abstract class LivenessLine permits AssignmentLivenessLine, JumpLivenessLine, NoAssignmentLivenessLine {
-    protected Node rootNode;
+    protected MachineInstruction instruction;
     public Register target;
+    // Fixed registers written by the instruction besides the target, e.g. EDX by cltd
+    public List<Register> clobbers = List.of();
     public Operation operation;
     public List<Register> parameters;
     public Set<Register> liveInVariables;
-    public Node jumpTarget;
+    public MachineBasicBlock jumpTarget;
+    // Number of loops around the line, for spill costs
+    public int loopDepth;
+
+    public MachineInstruction instruction() {
+        return instruction;
+    }
 
     @Override
     public abstract String toString();
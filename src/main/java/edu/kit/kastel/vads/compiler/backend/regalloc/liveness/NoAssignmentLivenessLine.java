@@ -1,6 +1,7 @@
 package edu.kit.kastel.vads.compiler.backend.regalloc.liveness;
 
 import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
 import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
 
 import java.util.HashSet;
@@ -9,7 +10,8 @@ import java.util.stream.Collectors;
 
 public final class NoAssignmentLivenessLine extends LivenessLine {
 
-    public NoAssignmentLivenessLine(Operation operation, List<Register> parameters) {
+    public NoAssignmentLivenessLine(MachineInstruction instruction, Operation operation, List<Register> parameters) {
+        this.instruction = instruction;
         this.operation = operation;
         this.parameters = parameters;
         this.liveInVariables = new HashSet<Register>();
@@ -24,6 +26,6 @@ public final class NoAssignmentLivenessLine extends LivenessLine {
         String params = parameters.stream()
                 .map(Register::toString)
                 .collect(Collectors.joining(", "));
-        return "Root: " + rootNode + " - " + operation + "(" + params + ")" + "Liveness Variables: " + liveInVariables;
+        return instruction + " - " + operation + "(" + params + ")" + "Liveness Variables: " + liveInVariables;
     }
 }
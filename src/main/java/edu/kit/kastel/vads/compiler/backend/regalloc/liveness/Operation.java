@@ -6,5 +6,5 @@ public enum Operation {
     RETURN,
     GOTO,
     CONDITIONAL_GOTO,
-    PHI_ASSIGN,
+    USE,
 }
\ No newline at end of file
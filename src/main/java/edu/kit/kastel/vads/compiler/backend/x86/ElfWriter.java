@@ -0,0 +1,66 @@
+package edu.kit.kastel.vads.compiler.backend.x86;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/// Writes machine code as a minimal static ELF64 executable for Linux on x86-64.
+///
+/// The file is a single segment: the ELF header, one program header and the code, loaded readable and
+/// executable at [#BASE_ADDRESS]. There are no sections, no symbols and nothing to relocate, the code only
+/// uses relative jumps and calls.
+public class ElfWriter {
+    private static final long BASE_ADDRESS = 0x400000;
+    private static final int ELF_HEADER_SIZE = 64;
+    private static final int PROGRAM_HEADER_SIZE = 56;
+    private static final int CODE_OFFSET = ELF_HEADER_SIZE + PROGRAM_HEADER_SIZE;
+
+    public void write(Path path, X86_64Encoder.Code code) throws IOException {
+        long fileSize = CODE_OFFSET + code.bytes().length;
+        ByteBuffer buffer = ByteBuffer.allocate(CODE_OFFSET).order(ByteOrder.LITTLE_ENDIAN);
+
+        // e_ident: magic, 64 bit, little endian, version 1, System V ABI
+        buffer.put(new byte[]{0x7F, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        buffer.putShort((short) 2); // e_type: executable
+        buffer.putShort((short) 62); // e_machine: x86-64
+        buffer.putInt(1); // e_version
+        buffer.putLong(BASE_ADDRESS + CODE_OFFSET + code.entry()); // e_entry
+        buffer.putLong(ELF_HEADER_SIZE); // e_phoff
+        buffer.putLong(0); // e_shoff: no section headers
+        buffer.putInt(0); // e_flags
+        buffer.putShort((short) ELF_HEADER_SIZE); // e_ehsize
+        buffer.putShort((short) PROGRAM_HEADER_SIZE); // e_phentsize
+        buffer.putShort((short) 1); // e_phnum
+        buffer.putShort((short) 64); // e_shentsize
+        buffer.putShort((short) 0); // e_shnum
+        buffer.putShort((short) 0); // e_shstrndx
+
+        buffer.putInt(1); // p_type: PT_LOAD
+        buffer.putInt(0x5); // p_flags: readable and executable
+        buffer.putLong(0); // p_offset: the headers are loaded as well
+        buffer.putLong(BASE_ADDRESS); // p_vaddr
+        buffer.putLong(BASE_ADDRESS); // p_paddr
+        buffer.putLong(fileSize); // p_filesz
+        buffer.putLong(fileSize); // p_memsz
+        buffer.putLong(0x1000); // p_align
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = {buffer, ByteBuffer.wrap(code.bytes())};
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (UnsupportedOperationException e) {
+            path.toFile().setExecutable(true);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package edu.kit.kastel.vads.compiler.backend.x86;
+
+import edu.kit.kastel.vads.compiler.backend.mir.MachineBasicBlock;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineFunction;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+
+import java.io.IOException;
+import java.lang.foreign.*;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.foreign.ValueLayout.*;
+
+/// Runs compiled programs inside the JVM, so that many programs can be run without starting a process for each.
+///
+/// The code is encoded by the [X86_64Encoder], copied into an anonymous mapping that is then made executable
+/// (never writable and executable at once) and `_main` is called through a downcall handle. The generated code
+/// doesn't follow the calling convention: the register allocator hands out RBX and R12 to R15, which the caller
+/// expects to be preserved (HotSpot keeps the current thread in R15 and the heap base in R12). So the call goes
+/// through a trampoline after the code that saves these registers around it. Besides that, the code is a leaf
+/// that only touches the red zone below the stack pointer, so it can run on the stack of the calling thread.
+///
+/// A trap in native code can't be caught, the JVM would die with it. Programs that may trap, i.e. the ones that
+/// divide (by zero, or `INT_MIN` by -1), are written as executable and run in a process of their own instead.
+/// Both ways report the status the process would exit with: the result of `_main` modulo 256, or 128 plus the
+/// number of the signal that killed it.
+public class NativeRunner {
+    private static final int PROT_READ = 0x1;
+    private static final int PROT_WRITE = 0x2;
+    private static final int PROT_EXEC = 0x4;
+    private static final int MAP_PRIVATE = 0x02;
+    private static final int MAP_ANONYMOUS = 0x20;
+
+    private final Linker linker = Linker.nativeLinker();
+    private final MethodHandle mmap = libc("mmap",
+            FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG));
+    private final MethodHandle mprotect = libc("mprotect", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT));
+    private final MethodHandle munmap = libc("munmap", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG));
+
+    /// {@return the exit status of the program}
+    public int run(List<MachineFunction> functions) throws IOException, InterruptedException {
+        X86_64Encoder.Code code = new X86_64Encoder().encode(functions);
+        if (mayTrap(functions)) {
+            return runIsolated(code);
+        }
+        return call(code, "_main") & 0xFF;
+    }
+
+    /// {@return the result of the function with the label, called in this process}
+    public int call(X86_64Encoder.Code code, String label) {
+        byte[] bytes = withTrampoline(code, label);
+        long size = bytes.length;
+        try {
+            MemorySegment memory = (MemorySegment) mmap.invokeExact(MemorySegment.NULL, size,
+                    PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0L);
+            if (memory.address() == -1L) {
+                throw new IllegalStateException("mmap failed");
+            }
+            memory = memory.reinterpret(size);
+            try {
+                MemorySegment.copy(bytes, 0, memory, JAVA_BYTE, 0, bytes.length);
+                if ((int) mprotect.invokeExact(memory, size, PROT_READ | PROT_EXEC) != 0) {
+                    throw new IllegalStateException("mprotect failed");
+                }
+                MethodHandle function = linker.downcallHandle(memory.asSlice(code.bytes().length),
+                        FunctionDescriptor.of(JAVA_INT));
+                return (int) function.invokeExact();
+            } finally {
+                int _ = (int) munmap.invokeExact(memory, size);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the code followed by a function that calls the label with the callee-saved registers saved
+    private static byte[] withTrampoline(X86_64Encoder.Code code, String label) {
+        byte[] trampoline = {
+                0x53, // pushq %rbx
+                0x41, 0x54, // pushq %r12
+                0x41, 0x55, // pushq %r13
+                0x41, 0x56, // pushq %r14
+                0x41, 0x57, // pushq %r15
+                // five pushes and the return address keep the stack 16 byte aligned for the call
+                (byte) 0xE8, 0, 0, 0, 0, // call label
+                0x41, 0x5F, // popq %r15
+                0x41, 0x5E, // popq %r14
+                0x41, 0x5D, // popq %r13
+                0x41, 0x5C, // popq %r12
+                0x5B, // popq %rbx
+                (byte) 0xC3, // ret
+        };
+        int callEnd = code.bytes().length + 14;
+        ByteBuffer.wrap(trampoline, 10, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(code.offset(label) - callEnd);
+        byte[] bytes = Arrays.copyOf(code.bytes(), code.bytes().length + trampoline.length);
+        System.arraycopy(trampoline, 0, bytes, code.bytes().length, trampoline.length);
+        return bytes;
+    }
+
+    private static int runIsolated(X86_64Encoder.Code code) throws IOException, InterruptedException {
+        Path executable = Files.createTempFile("program", "");
+        try {
+            new ElfWriter().write(executable, code);
+            Process process = new ProcessBuilder(executable.toString()).inheritIO().start();
+            return process.waitFor();
+        } finally {
+            Files.deleteIfExists(executable);
+        }
+    }
+
+    private static boolean mayTrap(List<MachineFunction> functions) {
+        for (MachineFunction function : functions) {
+            for (MachineBasicBlock block : function.blocks()) {
+                for (MachineInstruction instruction : block.instructions()) {
+                    if (instruction.opcode() == Opcode.IDIV) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private MethodHandle libc(String name, FunctionDescriptor descriptor) {
+        MemorySegment symbol = linker.defaultLookup().find(name)
+                .orElseThrow(() -> new IllegalStateException("No " + name + " in the C library"));
+        return linker.downcallHandle(symbol, descriptor);
+    }
+}
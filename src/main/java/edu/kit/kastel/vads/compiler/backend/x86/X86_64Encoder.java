@@ -0,0 +1,419 @@
+package edu.kit.kastel.vads.compiler.backend.x86;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64Register;
+import org.jspecify.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+/// Encodes allocated machine code into x86-64 machine code, for the instructions the code generator emits.
+///
+/// The code starts with the same entry stub as the assembly of the [CodeGenerator][edu.kit.kastel.vads.compiler.backend.aasm.CodeGenerator]:
+/// `main` calls `_main` and passes its result to the exit syscall. Every function follows under its label.
+///
+/// Jumps are relaxed: all of them start with an 8-bit displacement, the ones whose target turns out to be too far
+/// away are widened to 32 bits and the code is laid out again, until all jumps fit. Widening only moves targets
+/// further away, so this terminates.
+public class X86_64Encoder {
+    private static final String ENTRY = "main";
+
+    private final List<Item> items = new ArrayList<>();
+
+    /// {@return the machine code of the functions, with the offsets of the entry stub and the functions}
+    public Code encode(List<MachineFunction> functions) {
+        items.clear();
+        items.add(new Define(ENTRY));
+        items.add(new Jump(Opcode.JMP, null, "_main", true));
+        // movq %rax, %rdi; movq $0x3C, %rax; syscall
+        items.add(new Bytes(new byte[]{0x48, (byte) 0x89, (byte) 0xC7}));
+        items.add(new Bytes(new byte[]{0x48, (byte) 0xC7, (byte) 0xC0, 0x3C, 0, 0, 0}));
+        items.add(new Bytes(new byte[]{0x0F, 0x05}));
+
+        for (MachineFunction function : functions) {
+            items.add(new Define("_" + function.name()));
+            for (MachineBasicBlock block : function.blocks()) {
+                items.add(new Define(block.label().name()));
+                for (MachineInstruction instruction : block.instructions()) {
+                    switch (instruction.opcode()) {
+                        case JMP, JCC -> items.add(new Jump(instruction.opcode(), instruction.condition(),
+                                ((Label) instruction.operand(0)).name(), false));
+                        default -> items.add(new Bytes(encode(instruction)));
+                    }
+                }
+            }
+        }
+
+        Map<String, Integer> labels = layout();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Item item : items) {
+            switch (item) {
+                case Define _ -> {
+                }
+                case Bytes bytes -> out.writeBytes(bytes.bytes());
+                case Jump jump -> {
+                    int displacement = target(labels, jump) - (out.size() + jump.size());
+                    out.writeBytes(jump.encode(displacement));
+                }
+            }
+        }
+        return new Code(out.toByteArray(), Map.copyOf(labels));
+    }
+
+    // Offsets of the labels once every jump fits its displacement
+    private Map<String, Integer> layout() {
+        while (true) {
+            Map<String, Integer> labels = new HashMap<>();
+            List<Integer> offsets = new ArrayList<>();
+            int offset = 0;
+            for (Item item : items) {
+                offsets.add(offset);
+                switch (item) {
+                    case Define define -> labels.put(define.label(), offset);
+                    case Bytes bytes -> offset += bytes.bytes().length;
+                    case Jump jump -> offset += jump.size();
+                }
+            }
+            boolean widened = false;
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) instanceof Jump jump && jump.isShort()) {
+                    int displacement = target(labels, jump) - (offsets.get(i) + jump.size());
+                    if (!fitsByte(displacement)) {
+                        jump.widen();
+                        widened = true;
+                    }
+                }
+            }
+            if (!widened) {
+                return labels;
+            }
+        }
+    }
+
+    private static int target(Map<String, Integer> labels, Jump jump) {
+        Integer target = labels.get(jump.target());
+        if (target == null) {
+            throw new IllegalStateException("Undefined label " + jump.target());
+        }
+        return target;
+    }
+
+    private static byte[] encode(MachineInstruction instruction) {
+        Encoding encoding = new Encoding();
+        Opcode opcode = instruction.opcode();
+        switch (opcode) {
+            case MOV, MOVQ -> {
+                boolean wide = opcode == Opcode.MOVQ;
+                Operand source = instruction.operand(0);
+                Operand destination = instruction.operand(1);
+                if (source instanceof Immediate immediate && destination instanceof PhysicalRegister register && !wide) {
+                    // movl $imm, %reg has the register in the opcode
+                    encoding.rex(false, 0, 0, code(register), false);
+                    encoding.bytes(0xB8 + (code(register) & 7));
+                    encoding.immediate32(immediate.value());
+                } else if (source instanceof Immediate immediate) {
+                    encoding.modrm(wide, 0, destination, 0xC7);
+                    encoding.immediate32(immediate.value());
+                } else if (source instanceof PhysicalRegister register) {
+                    encoding.modrm(wide, code(register), destination, 0x89);
+                } else {
+                    encoding.modrm(wide, code(destination), source, 0x8B);
+                }
+            }
+            case MOVZB -> encoding.modrm(false, code(instruction.operand(1)), false, instruction.operand(0), true, 0x0F, 0xB6);
+            case LEA -> encoding.modrm(false, code(instruction.operand(1)), instruction.operand(0), 0x8D);
+            case ADD, SUB, AND, OR, XOR, CMP, ADDQ, SUBQ -> arithmetic(encoding, instruction);
+            case TEST -> {
+                Operand source = instruction.operand(0);
+                Operand destination = instruction.operand(1);
+                if (source instanceof Immediate immediate) {
+                    encoding.modrm(false, 0, destination, 0xF7);
+                    encoding.immediate32(immediate.value());
+                } else if (source instanceof PhysicalRegister register) {
+                    encoding.modrm(false, code(register), destination, 0x85);
+                } else {
+                    encoding.modrm(false, code(destination), source, 0x85);
+                }
+            }
+            case IMUL -> {
+                Operand destination = instruction.operand(1);
+                if (instruction.operand(0) instanceof Immediate immediate) {
+                    multiplyImmediate(encoding, immediate, destination, destination);
+                } else {
+                    encoding.modrm(false, code(destination), instruction.operand(0), 0x0F, 0xAF);
+                }
+            }
+            case IMUL_IMM -> multiplyImmediate(encoding, (Immediate) instruction.operand(0), instruction.operand(1),
+                    instruction.operand(2));
+            case IDIV -> encoding.modrm(false, 7, instruction.operand(0), 0xF7);
+            case NEG -> encoding.modrm(false, 3, instruction.operand(0), 0xF7);
+            case NOT -> encoding.modrm(false, 2, instruction.operand(0), 0xF7);
+            case CLTD -> encoding.bytes(0x99);
+            case SAL, SAR -> {
+                int extension = opcode == Opcode.SAL ? 4 : 7;
+                if (instruction.operand(0) instanceof Immediate immediate && immediate.value() == 1) {
+                    encoding.modrm(false, extension, instruction.operand(1), 0xD1);
+                } else if (instruction.operand(0) instanceof Immediate immediate) {
+                    encoding.modrm(false, extension, instruction.operand(1), 0xC1);
+                    encoding.bytes(immediate.value() & 0xFF);
+                } else {
+                    // the count is in CL
+                    encoding.modrm(false, extension, instruction.operand(1), 0xD3);
+                }
+            }
+            case SETCC -> encoding.modrm(false, 0, false, instruction.operand(0), true,
+                    0x0F, 0x90 + conditionCode(Objects.requireNonNull(instruction.condition())));
+            case PUSHQ, POPQ -> {
+                int register = code(instruction.operand(0));
+                encoding.rex(false, 0, 0, register, false);
+                encoding.bytes((opcode == Opcode.PUSHQ ? 0x50 : 0x58) + (register & 7));
+            }
+            case RET -> encoding.bytes(0xC3);
+            case JMP, JCC -> throw new IllegalStateException("Jumps are encoded after layout");
+        }
+        return encoding.toByteArray();
+    }
+
+    // op %reg, r/m has the opcode 8 * extension + 1, op r/m, %reg 8 * extension + 3 and op $imm32, %eax 8 * extension + 5
+    private static void arithmetic(Encoding encoding, MachineInstruction instruction) {
+        boolean wide = instruction.opcode() == Opcode.ADDQ || instruction.opcode() == Opcode.SUBQ;
+        int extension = switch (instruction.opcode()) {
+            case ADD, ADDQ -> 0;
+            case OR -> 1;
+            case AND -> 4;
+            case SUB, SUBQ -> 5;
+            case XOR -> 6;
+            case CMP -> 7;
+            default -> throw new IllegalArgumentException(instruction.toString());
+        };
+        Operand source = instruction.operand(0);
+        Operand destination = instruction.operand(1);
+        if (source instanceof Immediate immediate) {
+            if (fitsByte(immediate.value())) {
+                encoding.modrm(wide, extension, destination, 0x83);
+                encoding.bytes(immediate.value() & 0xFF);
+            } else if (!wide && destination instanceof PhysicalRegister register && register.register == X86_64Register.RAX) {
+                encoding.bytes(8 * extension + 5);
+                encoding.immediate32(immediate.value());
+            } else {
+                encoding.modrm(wide, extension, destination, 0x81);
+                encoding.immediate32(immediate.value());
+            }
+        } else if (source instanceof PhysicalRegister register) {
+            encoding.modrm(wide, code(register), destination, 8 * extension + 1);
+        } else {
+            encoding.modrm(wide, code(destination), source, 8 * extension + 3);
+        }
+    }
+
+    private static void multiplyImmediate(Encoding encoding, Immediate immediate, Operand source, Operand destination) {
+        if (fitsByte(immediate.value())) {
+            encoding.modrm(false, code(destination), source, 0x6B);
+            encoding.bytes(immediate.value() & 0xFF);
+        } else {
+            encoding.modrm(false, code(destination), source, 0x69);
+            encoding.immediate32(immediate.value());
+        }
+    }
+
+    private static int code(Operand operand) {
+        if (!(operand instanceof PhysicalRegister register)) {
+            throw new IllegalStateException("Not a register: " + operand);
+        }
+        return switch (register.register) {
+            case RAX -> 0;
+            case RCX -> 1;
+            case RDX -> 2;
+            case RBX -> 3;
+            case RSP -> 4;
+            case RBP -> 5;
+            case RSI -> 6;
+            case RDI -> 7;
+            case R8 -> 8;
+            case R9 -> 9;
+            case R10 -> 10;
+            case R11 -> 11;
+            case R12 -> 12;
+            case R13 -> 13;
+            case R14 -> 14;
+            case R15 -> 15;
+            case SPILL -> throw new IllegalStateException("Spilled register without a stack slot");
+        };
+    }
+
+    private static int conditionCode(Condition condition) {
+        return switch (condition) {
+            case E -> 0x4;
+            case NE -> 0x5;
+            case L -> 0xC;
+            case GE -> 0xD;
+            case LE -> 0xE;
+            case G -> 0xF;
+        };
+    }
+
+    private static boolean fitsByte(int value) {
+        return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+    }
+
+    /// Machine code and the offsets of its labels, functions are labeled with their name prefixed by `_`
+    public record Code(byte[] bytes, Map<String, Integer> labels) {
+        /// {@return the offset of the entry stub, which exits with the result of `_main`}
+        public int entry() {
+            return offset(ENTRY);
+        }
+
+        public int offset(String label) {
+            Integer offset = labels.get(label);
+            if (offset == null) {
+                throw new IllegalArgumentException("Undefined label " + label);
+            }
+            return offset;
+        }
+    }
+
+    private sealed interface Item permits Define, Bytes, Jump {
+    }
+
+    private record Define(String label) implements Item {
+    }
+
+    private record Bytes(byte[] bytes) implements Item {
+    }
+
+    // jmp, jcc or call (always 32 bit) to a label
+    private static final class Jump implements Item {
+        private final Opcode opcode;
+        private final @Nullable Condition condition;
+        private final String target;
+        private final boolean call;
+        private boolean wide;
+
+        Jump(Opcode opcode, @Nullable Condition condition, String target, boolean call) {
+            this.opcode = opcode;
+            this.condition = condition;
+            this.target = target;
+            this.call = call;
+            this.wide = call;
+        }
+
+        String target() {
+            return target;
+        }
+
+        boolean isShort() {
+            return !wide;
+        }
+
+        void widen() {
+            this.wide = true;
+        }
+
+        int size() {
+            if (!wide) {
+                return 2;
+            }
+            return call || opcode == Opcode.JMP ? 5 : 6;
+        }
+
+        byte[] encode(int displacement) {
+            Encoding encoding = new Encoding();
+            if (call) {
+                encoding.bytes(0xE8);
+            } else if (opcode == Opcode.JMP) {
+                encoding.bytes(wide ? 0xE9 : 0xEB);
+            } else {
+                int code = conditionCode(Objects.requireNonNull(condition));
+                if (wide) {
+                    encoding.bytes(0x0F, 0x80 + code);
+                } else {
+                    encoding.bytes(0x70 + code);
+                }
+            }
+            if (wide) {
+                encoding.immediate32(displacement);
+            } else {
+                encoding.bytes(displacement & 0xFF);
+            }
+            return encoding.toByteArray();
+        }
+    }
+
+    // The bytes of one instruction: REX prefix, opcode, ModRM, SIB, displacement and immediate
+    private static final class Encoding {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void bytes(int... bytes) {
+            for (int b : bytes) {
+                out.write(b);
+            }
+        }
+
+        void immediate32(int value) {
+            bytes(value & 0xFF, (value >>> 8) & 0xFF, (value >>> 16) & 0xFF, (value >>> 24) & 0xFF);
+        }
+
+        // A REX prefix is needed for 64 bit operands, registers R8 to R15, and SIL and DIL instead of DH and BH
+        void rex(boolean wide, int reg, int index, int base, boolean byteRegisters) {
+            int rex = 0x40 | (wide ? 8 : 0) | ((reg >> 3) << 2) | ((index >> 3) << 1) | (base >> 3);
+            if (rex != 0x40 || byteRegisters) {
+                out.write(rex);
+            }
+        }
+
+        void modrm(boolean wide, int reg, Operand rm, int... opcode) {
+            modrm(wide, reg, false, rm, false, opcode);
+        }
+
+        /// Encodes `opcode` with `reg` (a register or an opcode extension) and the register or memory operand `rm`
+        void modrm(boolean wide, int reg, boolean byteReg, Operand rm, boolean byteRm, int... opcode) {
+            switch (rm) {
+                case PhysicalRegister register -> {
+                    int code = code(register);
+                    boolean byteRegisters = byteReg && reg >= 4 && reg < 8 || byteRm && code >= 4 && code < 8;
+                    rex(wide, reg, 0, code, byteRegisters);
+                    bytes(opcode);
+                    bytes(0xC0 | (reg & 7) << 3 | (code & 7));
+                }
+                case StackSlot slot -> memory(wide, reg, code(X86_64PhysicalRegisters.get(X86_64Register.RSP)), -1, 1,
+                        slot.offset(), opcode);
+                case Address address -> memory(wide, reg,
+                        address.base() == null ? -1 : code(address.base()),
+                        address.index() == null ? -1 : code(address.index()),
+                        address.scale(), address.displacement(), opcode);
+                default -> throw new IllegalStateException("Not a register or memory operand: " + rm);
+            }
+        }
+
+        // [base + index * scale + displacement], base and index are -1 if absent
+        private void memory(boolean wide, int reg, int base, int index, int scale, int displacement, int... opcode) {
+            rex(wide, reg, Math.max(index, 0), Math.max(base, 0), false);
+            bytes(opcode);
+            boolean sib = index >= 0 || base < 0 || (base & 7) == 4;
+            int mod;
+            if (base < 0) {
+                mod = 0;
+            } else if (displacement == 0 && (base & 7) != 5) {
+                mod = 0;
+            } else {
+                mod = fitsByte(displacement) ? 1 : 2;
+            }
+            bytes(mod << 6 | (reg & 7) << 3 | (sib ? 4 : base & 7));
+            if (sib) {
+                int scaleBits = Integer.numberOfTrailingZeros(scale);
+                bytes(scaleBits << 6 | (index < 0 ? 4 : index & 7) << 3 | (base < 0 ? 5 : base & 7));
+            }
+            if (base < 0 || mod == 2) {
+                immediate32(displacement);
+            } else if (mod == 1) {
+                bytes(displacement & 0xFF);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
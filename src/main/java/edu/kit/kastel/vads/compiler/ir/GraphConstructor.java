@@ -22,9 +22,9 @@ class GraphConstructor {
     private final HashSet<String> blockNames = new HashSet<>();
     private Block currentBlock;
 
-    public GraphConstructor(Optimizer optimizer, String name) {
+    public GraphConstructor(Optimizer optimizer, String name, boolean debugInfo) {
         this.optimizer = optimizer;
-        this.graph = new IrGraph(name);
+        this.graph = new IrGraph(name, debugInfo);
         this.currentBlock = this.graph.startBlock();
         // the start block never gets any more predecessors
         sealBlock(this.currentBlock);
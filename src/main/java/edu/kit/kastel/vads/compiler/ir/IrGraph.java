@@ -2,6 +2,7 @@ package edu.kit.kastel.vads.compiler.ir;
 
 import edu.kit.kastel.vads.compiler.ir.node.Block;
 import edu.kit.kastel.vads.compiler.ir.node.Node;
+import edu.kit.kastel.vads.compiler.ir.util.DebugInfoHelper;
 
 import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
@@ -11,14 +12,22 @@ import java.util.Set;
 
 public class IrGraph {
     private final Map<Node, SequencedSet<Node>> successors = new IdentityHashMap<>();
+    private final DebugInfoHelper debugInfoHelper;
     private final Block startBlock;
     private final Block endBlock;
     private final String name;
 
     public IrGraph(String name) {
+        this(name, true);
+    }
+
+    /// @param debugInfo whether nodes keep the source span they were created for
+    public IrGraph(String name, boolean debugInfo) {
         this.name = name;
-        this.startBlock = new Block(this, "start");
-        this.endBlock = new Block(this, "end");
+        this.debugInfoHelper = new DebugInfoHelper(debugInfo);
+        // block names are labels, they must be unique across functions
+        this.startBlock = new Block(this, name + "_start");
+        this.endBlock = new Block(this, name + "_end");
     }
 
     public void registerSuccessor(Node node, Node successor) {
@@ -46,6 +55,11 @@ public class IrGraph {
         return this.endBlock;
     }
 
+    /// {@return the debug info that nodes of this graph are created with}
+    public DebugInfoHelper debugInfoHelper() {
+        return this.debugInfoHelper;
+    }
+
     public Map<Node, SequencedSet<Node>> getSuccessors() {
         return this.successors;
     }
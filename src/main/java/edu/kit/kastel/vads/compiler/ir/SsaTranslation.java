@@ -12,8 +12,6 @@ import edu.kit.kastel.vads.compiler.parser.ast.*;
 import edu.kit.kastel.vads.compiler.parser.symbol.Name;
 import edu.kit.kastel.vads.compiler.parser.visitor.Visitor;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.Optional;
 import java.util.function.BinaryOperator;
 
@@ -29,12 +27,18 @@ public class SsaTranslation {
     private final GraphConstructor constructor;
 
     public SsaTranslation(FunctionTree function, Optimizer optimizer) {
+        this(function, optimizer, true);
+    }
+
+    /// @param debugInfo whether nodes keep the source span they were translated from, without it they all
+    ///                  share [DebugInfo.NoInfo]
+    public SsaTranslation(FunctionTree function, Optimizer optimizer, boolean debugInfo) {
         this.function = function;
-        this.constructor = new GraphConstructor(optimizer, function.name().name().asString());
+        this.constructor = new GraphConstructor(optimizer, function.name().name().asString(), debugInfo);
     }
 
     public IrGraph translate() {
-        var visitor = new SsaTranslationVisitor();
+        var visitor = new SsaTranslationVisitor(this.constructor.graph().debugInfoHelper());
         this.function.accept(visitor, this);
         this.constructor.cleanupTrivialPhis();
         return this.constructor.graph();
@@ -57,15 +61,18 @@ public class SsaTranslation {
         @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
         private static final Optional<Node> NOT_AN_EXPRESSION = Optional.empty();
 
-        private final Deque<DebugInfo> debugStack = new ArrayDeque<>();
+        private final DebugInfoHelper debugInfoHelper;
+
+        SsaTranslationVisitor(DebugInfoHelper debugInfoHelper) {
+            this.debugInfoHelper = debugInfoHelper;
+        }
 
         private void pushSpan(Tree tree) {
-            this.debugStack.push(DebugInfoHelper.getDebugInfo());
-            DebugInfoHelper.setDebugInfo(new DebugInfo.SourceInfo(tree.span()));
+            this.debugInfoHelper.push(tree.span());
         }
 
         private void popSpan() {
-            DebugInfoHelper.setDebugInfo(this.debugStack.pop());
+            this.debugInfoHelper.pop();
         }
 
         @Override
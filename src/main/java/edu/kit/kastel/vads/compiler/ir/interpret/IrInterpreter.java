@@ -0,0 +1,368 @@
+package edu.kit.kastel.vads.compiler.ir.interpret;
+
+import edu.kit.kastel.vads.compiler.ir.IrGraph;
+import edu.kit.kastel.vads.compiler.ir.node.*;
+
+import java.util.*;
+
+/// Executes an [IrGraph] directly, without going through the backend.
+///
+/// The graph is decoded once into a flat `int` array: every node that computes a value gets a slot in a register
+/// file, every block is a run of fixed width instructions (opcode, destination, operands) over slot numbers in
+/// dependency order, ending with its jump or return. Constants are slots that are set before the run. The phis
+/// of a block are not instructions, they are the destinations of the parallel copy on each incoming edge, so
+/// that a jump copies the operands that belong to it and continues at the first instruction of its target.
+///
+/// Arithmetic is 32 bit with wraparound, shift counts are masked to 5 bits and `>>` is arithmetic, like the
+/// generated code. Dividing by zero or `INT_MIN` by -1 traps with `SIGFPE` at the point the division is
+/// reached. Comparisons and booleans are 0 or 1.
+public class IrInterpreter {
+    /// The signal a failing division raises
+    public static final int SIGFPE = 8;
+
+    private static final int WIDTH = 4;
+
+    private static final int ADD = 0;
+    private static final int SUB = 1;
+    private static final int MUL = 2;
+    private static final int DIV = 3;
+    private static final int MOD = 4;
+    private static final int SHL = 5;
+    private static final int SAR = 6;
+    private static final int AND = 7;
+    private static final int OR = 8;
+    private static final int XOR = 9;
+    private static final int LESS = 10;
+    private static final int LESS_EQUAL = 11;
+    private static final int MORE = 12;
+    private static final int MORE_EQUAL = 13;
+    private static final int EQUAL = 14;
+    private static final int NOT_EQUAL = 15;
+    private static final int LOGIC_AND = 16;
+    private static final int LOGIC_OR = 17;
+    // destination = first != 0 ? second : the second operand of the following word
+    private static final int SELECT = 18;
+    // the edge is the second operand
+    private static final int JUMP = 19;
+    // the condition is the first operand, the edge if true the second and the edge if false the destination
+    private static final int BRANCH = 20;
+    // the result is the first operand
+    private static final int RETURN = 21;
+
+    private final int[] code;
+    private final int entry;
+    private final int[] initialRegisters;
+    // per edge: the instruction to continue at and the range of its copies
+    private final int[] edgeTarget;
+    private final int[] edgeCopies;
+    private final int[] copySources;
+    private final int[] copyDestinations;
+    private final int largestCopy;
+
+    public IrInterpreter(IrGraph graph) {
+        Decoder decoder = new Decoder(graph);
+        decoder.decode();
+        this.code = decoder.code.toArray();
+        this.entry = decoder.blockStart.get(graph.startBlock());
+        this.initialRegisters = decoder.constants.toArray();
+        this.edgeTarget = new int[decoder.edges.size()];
+        this.edgeCopies = new int[decoder.edges.size() + 1];
+        IntList sources = new IntList();
+        IntList destinations = new IntList();
+        int largestCopy = 0;
+        for (int edge = 0; edge < decoder.edges.size(); edge++) {
+            Edge e = decoder.edges.get(edge);
+            this.edgeTarget[edge] = decoder.blockStart.get(e.target());
+            this.edgeCopies[edge] = sources.size();
+            for (int[] copy : e.copies()) {
+                sources.add(copy[0]);
+                destinations.add(copy[1]);
+            }
+            largestCopy = Math.max(largestCopy, e.copies().size());
+        }
+        this.edgeCopies[decoder.edges.size()] = sources.size();
+        this.copySources = sources.toArray();
+        this.copyDestinations = destinations.toArray();
+        this.largestCopy = largestCopy;
+    }
+
+    /// {@return how the graph ends, it is run until it does}
+    public Outcome run() {
+        return run(Long.MAX_VALUE);
+    }
+
+    /// {@return how the graph ends, or [Outcome.Unfinished] if it takes more than the number of jumps}
+    public Outcome run(long maxJumps) {
+        int[] code = this.code;
+        int[] r = this.initialRegisters.clone();
+        int[] scratch = new int[this.largestCopy];
+        long jumps = 0;
+        int pc = this.entry;
+        while (true) {
+            switch (code[pc]) {
+                case ADD -> r[code[pc + 1]] = r[code[pc + 2]] + r[code[pc + 3]];
+                case SUB -> r[code[pc + 1]] = r[code[pc + 2]] - r[code[pc + 3]];
+                case MUL -> r[code[pc + 1]] = r[code[pc + 2]] * r[code[pc + 3]];
+                case DIV, MOD -> {
+                    int dividend = r[code[pc + 2]];
+                    int divisor = r[code[pc + 3]];
+                    if (divisor == 0 || divisor == -1 && dividend == Integer.MIN_VALUE) {
+                        return new Outcome.Trapped(SIGFPE);
+                    }
+                    r[code[pc + 1]] = code[pc] == DIV ? dividend / divisor : dividend % divisor;
+                }
+                case SHL -> r[code[pc + 1]] = r[code[pc + 2]] << r[code[pc + 3]];
+                case SAR -> r[code[pc + 1]] = r[code[pc + 2]] >> r[code[pc + 3]];
+                case AND -> r[code[pc + 1]] = r[code[pc + 2]] & r[code[pc + 3]];
+                case OR -> r[code[pc + 1]] = r[code[pc + 2]] | r[code[pc + 3]];
+                case XOR -> r[code[pc + 1]] = r[code[pc + 2]] ^ r[code[pc + 3]];
+                case LESS -> r[code[pc + 1]] = r[code[pc + 2]] < r[code[pc + 3]] ? 1 : 0;
+                case LESS_EQUAL -> r[code[pc + 1]] = r[code[pc + 2]] <= r[code[pc + 3]] ? 1 : 0;
+                case MORE -> r[code[pc + 1]] = r[code[pc + 2]] > r[code[pc + 3]] ? 1 : 0;
+                case MORE_EQUAL -> r[code[pc + 1]] = r[code[pc + 2]] >= r[code[pc + 3]] ? 1 : 0;
+                case EQUAL -> r[code[pc + 1]] = r[code[pc + 2]] == r[code[pc + 3]] ? 1 : 0;
+                case NOT_EQUAL -> r[code[pc + 1]] = r[code[pc + 2]] != r[code[pc + 3]] ? 1 : 0;
+                case LOGIC_AND -> r[code[pc + 1]] = r[code[pc + 2]] != 0 && r[code[pc + 3]] != 0 ? 1 : 0;
+                case LOGIC_OR -> r[code[pc + 1]] = r[code[pc + 2]] != 0 || r[code[pc + 3]] != 0 ? 1 : 0;
+                case SELECT -> {
+                    r[code[pc + 1]] = r[code[pc + 2]] != 0 ? r[code[pc + 3]] : r[code[pc + WIDTH + 3]];
+                    pc += WIDTH;
+                }
+                case JUMP, BRANCH -> {
+                    int edge = code[pc] == JUMP || r[code[pc + 2]] != 0 ? code[pc + 3] : code[pc + 1];
+                    if (++jumps > maxJumps) {
+                        return new Outcome.Unfinished();
+                    }
+                    pc = take(edge, r, scratch);
+                    continue;
+                }
+                case RETURN -> {
+                    return new Outcome.Returned(r[code[pc + 2]]);
+                }
+                default -> throw new IllegalStateException("invalid opcode " + code[pc]);
+            }
+            pc += WIDTH;
+        }
+    }
+
+    // all operands are read before any phi is written, phis of a block can be operands of each other
+    private int take(int edge, int[] r, int[] scratch) {
+        int start = this.edgeCopies[edge];
+        int end = this.edgeCopies[edge + 1];
+        for (int i = start; i < end; i++) {
+            scratch[i - start] = r[this.copySources[i]];
+        }
+        for (int i = start; i < end; i++) {
+            r[this.copyDestinations[i]] = scratch[i - start];
+        }
+        return this.edgeTarget[edge];
+    }
+
+    /// How a run of the graph ended
+    public sealed interface Outcome {
+        /// The graph returned the value
+        record Returned(int value) implements Outcome {
+        }
+
+        /// A division trapped with the signal
+        record Trapped(int signal) implements Outcome {
+        }
+
+        /// The run was stopped before the graph returned
+        record Unfinished() implements Outcome {
+        }
+
+        /// {@return the status a process running the program exits with}
+        default int exitStatus() {
+            return switch (this) {
+                case Returned(int value) -> value & 0xFF;
+                case Trapped(int signal) -> 128 + signal;
+                case Unfinished() -> throw new IllegalStateException("the program did not finish");
+            };
+        }
+    }
+
+    private record Edge(Block target, List<int[]> copies) {
+    }
+
+    private static final class Decoder {
+        private final IrGraph graph;
+        private final Map<Node, Integer> slots = new IdentityHashMap<>();
+        private final Map<Block, List<Node>> blockNodes = new IdentityHashMap<>();
+        private final Map<Block, List<Phi>> phis = new IdentityHashMap<>();
+        private final Map<Block, Node> terminators = new IdentityHashMap<>();
+        private final Map<Block, Integer> blockStart = new IdentityHashMap<>();
+        private final List<Edge> edges = new ArrayList<>();
+        private final IntList constants = new IntList();
+        private final IntList code = new IntList();
+
+        Decoder(IrGraph graph) {
+            this.graph = graph;
+        }
+
+        void decode() {
+            Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<Node> work = new ArrayDeque<>(List.of(this.graph.endBlock()));
+            List<Node> nodes = new ArrayList<>();
+            while (!work.isEmpty()) {
+                Node node = work.pop();
+                if (!visited.add(node)) {
+                    continue;
+                }
+                nodes.add(node);
+                work.addAll(node.predecessors());
+                work.add(node.block());
+            }
+            for (Node node : nodes) {
+                switch (node) {
+                    case Block _ -> {
+                    }
+                    case JumpNode _, CondJumpNode _, ReturnNode _ -> this.terminators.put(node.block(), node);
+                    case Phi phi -> this.phis.computeIfAbsent(phi.block(), _ -> new ArrayList<>()).add(phi);
+                    // the result of a division is the division itself
+                    case ProjNode proj when proj.projectionInfo() == ProjNode.SimpleProjectionInfo.RESULT -> {
+                    }
+                    case BinaryOperationNode _, CondExprNode _ ->
+                            this.blockNodes.computeIfAbsent(node.block(), _ -> new ArrayList<>()).add(node);
+                    default -> {
+                    }
+                }
+            }
+
+            for (Block block : blocks(nodes)) {
+                this.blockStart.put(block, this.code.size());
+                Set<Node> emitted = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (Node node : this.blockNodes.getOrDefault(block, List.of())) {
+                    emitInOrder(node, block, emitted);
+                }
+                emitTerminator(Objects.requireNonNull(this.terminators.get(block),
+                        () -> "block without jump or return: " + block.blockName()));
+            }
+        }
+
+        // the blocks that are executed, the end block only holds the returns
+        private List<Block> blocks(List<Node> nodes) {
+            List<Block> blocks = new ArrayList<>();
+            for (Node node : nodes) {
+                if (node instanceof Block block && block != this.graph.endBlock()) {
+                    blocks.add(block);
+                }
+            }
+            return blocks;
+        }
+
+        // inputs in the same block are computed first, including divisions earlier in the side effect chain
+        private void emitInOrder(Node node, Block block, Set<Node> emitted) {
+            if (node instanceof ProjNode) {
+                emitInOrder(node.predecessor(ProjNode.IN), block, emitted);
+                return;
+            }
+            if (node.block() != block || !(node instanceof BinaryOperationNode || node instanceof CondExprNode)
+                    || !emitted.add(node)) {
+                return;
+            }
+            for (Node predecessor : node.predecessors()) {
+                emitInOrder(predecessor, block, emitted);
+            }
+            switch (node) {
+                case CondExprNode _ -> {
+                    emit(SELECT, slot(node), slot(node.predecessor(0)), slot(node.predecessor(1)));
+                    emit(SELECT, 0, 0, slot(node.predecessor(2)));
+                }
+                case BinaryOperationNode _ -> emit(opcode(node), slot(node), slot(node.predecessor(0)),
+                        slot(node.predecessor(1)));
+                default -> throw new AssertionError("not computed: " + node);
+            }
+        }
+
+        private void emitTerminator(Node terminator) {
+            switch (terminator) {
+                case JumpNode jump -> emit(JUMP, 0, 0, edge(jump, jump.target()));
+                case CondJumpNode condJump -> emit(BRANCH, edge(condJump, condJump.falseTarget()),
+                        slot(condJump.condition()), edge(condJump, condJump.trueTarget()));
+                case ReturnNode ret -> emit(RETURN, 0, slot(ret.predecessor(ReturnNode.RESULT)), 0);
+                default -> throw new IllegalStateException("not a terminator: " + terminator);
+            }
+        }
+
+        private int edge(Node terminator, Block target) {
+            List<int[]> copies = new ArrayList<>();
+            int index = target.predecessors().indexOf(terminator);
+            for (Phi phi : this.phis.getOrDefault(target, List.of())) {
+                copies.add(new int[] {slot(phi.predecessor(index)), slot(phi)});
+            }
+            this.edges.add(new Edge(target, copies));
+            return this.edges.size() - 1;
+        }
+
+        private void emit(int opcode, int destination, int first, int second) {
+            this.code.add(opcode);
+            this.code.add(destination);
+            this.code.add(first);
+            this.code.add(second);
+        }
+
+        // constants start with their value, values that are never read (side effects, undefined) with 0
+        private int slot(Node node) {
+            if (node instanceof ProjNode proj && proj.projectionInfo() == ProjNode.SimpleProjectionInfo.RESULT) {
+                return slot(proj.predecessor(ProjNode.IN));
+            }
+            Integer slot = this.slots.get(node);
+            if (slot != null) {
+                return slot;
+            }
+            this.slots.put(node, this.constants.size());
+            this.constants.add(switch (node) {
+                case ConstIntNode c -> c.value();
+                case ConstBoolNode b -> b.value() ? 1 : 0;
+                default -> 0;
+            });
+            return this.slots.get(node);
+        }
+
+        private static int opcode(Node node) {
+            return switch (node) {
+                case AddNode _ -> ADD;
+                case SubNode _ -> SUB;
+                case MulNode _ -> MUL;
+                case DivNode _ -> DIV;
+                case ModNode _ -> MOD;
+                case LShiftNode _ -> SHL;
+                case RShiftNode _ -> SAR;
+                case BitAndNode _ -> AND;
+                case BitOrNode _ -> OR;
+                case ExclOrNode _ -> XOR;
+                case LessNode _ -> LESS;
+                case LeqNode _ -> LESS_EQUAL;
+                case MoreNode _ -> MORE;
+                case MeqNode _ -> MORE_EQUAL;
+                case EqualNode _ -> EQUAL;
+                case NotEqualNode _ -> NOT_EQUAL;
+                case LogicAndNode _ -> LOGIC_AND;
+                case LogicOrNode _ -> LOGIC_OR;
+                default -> throw new IllegalStateException("no instruction for " + node);
+            };
+        }
+    }
+
+    // a growable int array, the decoded form must not box
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+}
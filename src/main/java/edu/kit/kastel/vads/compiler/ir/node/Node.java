@@ -2,7 +2,6 @@ package edu.kit.kastel.vads.compiler.ir.node;
 
 import edu.kit.kastel.vads.compiler.ir.util.DebugInfo;
 import edu.kit.kastel.vads.compiler.ir.IrGraph;
-import edu.kit.kastel.vads.compiler.ir.util.DebugInfoHelper;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -21,7 +20,7 @@ public sealed abstract class Node permits UndefinedNode, BinaryOperationNode, Bl
         for (Node predecessor : predecessors) {
             graph.registerSuccessor(predecessor, this);
         }
-        this.debugInfo = DebugInfoHelper.getDebugInfo();
+        this.debugInfo = this.graph.debugInfoHelper().getDebugInfo();
     }
 
     protected Node(IrGraph graph) {
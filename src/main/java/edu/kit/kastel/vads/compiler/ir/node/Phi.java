@@ -9,8 +9,12 @@ public final class Phi extends Node {
         addPredecessor(node);
     }
 
+    // Phis that swap values are operands of each other, only the outermost one is expanded
     @Override
     protected String info() {
-        return this.predecessors().toString();
+        return this.predecessors().stream()
+                .map(predecessor -> predecessor instanceof Phi ? "Phi" : predecessor.toString())
+                .toList()
+                .toString();
     }
 }
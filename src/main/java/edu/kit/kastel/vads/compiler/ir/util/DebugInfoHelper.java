@@ -1,16 +1,40 @@
 package edu.kit.kastel.vads.compiler.ir.util;
 
-/// This is a dirty trick as we don't have Scoped Values.
-/// It allows tracking debug info without having to pass it
-/// down all the layers.
+import edu.kit.kastel.vads.compiler.Span;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/// Tracks the source span of the tree that is translated, so that every node created for it gets the span
+/// without having to pass it down all the layers.
+///
+/// Each [edu.kit.kastel.vads.compiler.ir.IrGraph] has its own helper, functions can be translated concurrently.
+/// A disabled helper ignores all spans, the nodes then share [DebugInfo.NoInfo] instead of carrying a
+/// [DebugInfo.SourceInfo] each.
 public final class DebugInfoHelper {
-    private static DebugInfo debugInfo = DebugInfo.NoInfo.INSTANCE;
+    private final boolean enabled;
+    private final Deque<DebugInfo> outer = new ArrayDeque<>();
+    private DebugInfo debugInfo = DebugInfo.NoInfo.INSTANCE;
+
+    public DebugInfoHelper(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /// Nodes created until the matching [#pop()] belong to the span
+    public void push(Span span) {
+        if (this.enabled) {
+            this.outer.push(this.debugInfo);
+            this.debugInfo = new DebugInfo.SourceInfo(span);
+        }
+    }
 
-    public static void setDebugInfo(DebugInfo debugInfo) {
-        DebugInfoHelper.debugInfo = debugInfo;
+    public void pop() {
+        if (this.enabled) {
+            this.debugInfo = this.outer.pop();
+        }
     }
 
-    public static DebugInfo getDebugInfo() {
-        return debugInfo;
+    public DebugInfo getDebugInfo() {
+        return this.debugInfo;
     }
 }
@@ -1,22 +1,87 @@
 package edu.kit.kastel.vads.compiler.lexer;
 
-import edu.kit.kastel.vads.compiler.Position;
+import edu.kit.kastel.vads.compiler.LineMap;
 import edu.kit.kastel.vads.compiler.Span;
 import edu.kit.kastel.vads.compiler.lexer.Operator.OperatorType;
 import edu.kit.kastel.vads.compiler.lexer.Separator.SeparatorType;
-import org.jspecify.annotations.Nullable;
 
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
+/// A table driven lexer.
+///
+/// The first character of a token picks how it is scanned by its class in [#CLASSES]. Operators and
+/// separators are matched by a DFA over their texts that takes the longest match. Identifiers are scanned
+/// as a whole and then looked up as keywords (and `true` and `false`) in a table indexed by a perfect hash
+/// of their first and last character and their length, which is compared in place in the source.
 public class Lexer {
+    // the classes of ASCII characters, all others are OTHER
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte DIGIT = 2;
+    private static final byte PUNCTUATION = 3;
+    private static final byte[] CLASSES = new byte[128];
+
+    // the DFA for operators and separators, 128 transitions per state (-1 for none) and start state 0
+    private static final int[] TRANSITIONS;
+    // the kind of the token that ends in a state, END if none does
+    private static final int[] ACCEPTS;
+
+    private static final int KEYWORD_SLOTS = 64;
+    private static final String[] KEYWORDS = new String[KEYWORD_SLOTS];
+    private static final int[] KEYWORD_KINDS = new int[KEYWORD_SLOTS];
+    private static final int FIRST_FACTOR;
+    private static final int LAST_FACTOR;
+
+    static {
+        Arrays.fill(CLASSES, 'a', 'z' + 1, LETTER);
+        Arrays.fill(CLASSES, 'A', 'Z' + 1, LETTER);
+        CLASSES['_'] = LETTER;
+        Arrays.fill(CLASSES, '0', '9' + 1, DIGIT);
+
+        List<int[]> states = new ArrayList<>();
+        List<Integer> accepts = new ArrayList<>();
+        for (OperatorType type : OperatorType.values()) {
+            addPunctuation(type.toString(), TokenKind.operator(type), states, accepts);
+        }
+        for (SeparatorType type : SeparatorType.values()) {
+            addPunctuation(type.toString(), TokenKind.separator(type), states, accepts);
+        }
+        TRANSITIONS = new int[states.size() * 128];
+        for (int state = 0; state < states.size(); state++) {
+            System.arraycopy(states.get(state), 0, TRANSITIONS, state * 128, 128);
+        }
+        ACCEPTS = accepts.stream().mapToInt(Integer::intValue).toArray();
+
+        List<String> words = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        for (KeywordType type : KeywordType.values()) {
+            words.add(type.keyword());
+            kinds.add(TokenKind.keyword(type));
+        }
+        words.addAll(List.of("true", "false"));
+        kinds.addAll(List.of(TokenKind.BOOLEAN, TokenKind.BOOLEAN));
+        int[] factors = perfectHashFactors(words);
+        FIRST_FACTOR = factors[0];
+        LAST_FACTOR = factors[1];
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            int slot = keywordSlot(word.charAt(0), word.charAt(word.length() - 1), word.length());
+            KEYWORDS[slot] = word;
+            KEYWORD_KINDS[slot] = kinds.get(i);
+        }
+    }
+
     private final String source;
+    private final LineMap lines;
     private int pos;
-    private int lineStart;
-    private int line;
+    private int tokenStart;
 
     private Lexer(String source) {
         this.source = source;
+        this.lines = new LineMap(source);
     }
 
     public static Lexer forString(String source) {
@@ -24,54 +89,62 @@ public class Lexer {
     }
 
     public Optional<Token> nextToken() {
-        ErrorToken error = skipWhitespace();
-        if (error != null) {
-            return Optional.of(error);
+        int kind = scan();
+        if (kind == TokenKind.END) {
+            return Optional.empty();
+        }
+        String text = TokenKind.hasText(kind) ? this.source.substring(this.tokenStart, this.pos) : "";
+        return Optional.of(TokenKind.token(kind, text, span()));
+    }
+
+    /// Scans the next token without creating an object for it, it is found between [#tokenStart()] and
+    /// [#tokenEnd()]
+    ///
+    /// @return the [TokenKind] of the token, [TokenKind#END] at the end of the input
+    public int scan() {
+        int unterminatedComment = skipWhitespace();
+        if (unterminatedComment >= 0) {
+            this.tokenStart = unterminatedComment;
+            return TokenKind.ERROR;
         }
+        this.tokenStart = this.pos;
         if (this.pos >= this.source.length()) {
-            return Optional.empty();
+            return TokenKind.END;
         }
-        Token t = switch (peek()) {
-            case '(' -> separator(SeparatorType.PAREN_OPEN);
-            case ')' -> separator(SeparatorType.PAREN_CLOSE);
-            case '{' -> separator(SeparatorType.BRACE_OPEN);
-            case '}' -> separator(SeparatorType.BRACE_CLOSE);
-            case ';' -> separator(SeparatorType.SEMICOLON);
-            case '?' -> new Operator(OperatorType.COND_EXP1, buildSpan(1));
-            case ':' -> new Operator(OperatorType.COND_EXP2, buildSpan(1));
-            case '~' -> new Operator(OperatorType.BIT_NOT, buildSpan(1));
-            case '-' -> singleOrAssign(OperatorType.MINUS, OperatorType.ASSIGN_MINUS);
-            case '+' -> singleOrAssign(OperatorType.PLUS, OperatorType.ASSIGN_PLUS);
-            case '*' -> singleOrAssign(OperatorType.MUL, OperatorType.ASSIGN_MUL);
-            case '/' -> singleOrAssign(OperatorType.DIV, OperatorType.ASSIGN_DIV);
-            case '%' -> singleOrAssign(OperatorType.MOD, OperatorType.ASSIGN_MOD);
-            case '=' -> singleOrAssign(OperatorType.ASSIGN, OperatorType.EQUAL);
-            case '!' -> singleOrAssign(OperatorType.LOG_NOT, OperatorType.NOT_EQUAL);
-            case '^' -> singleOrAssign(OperatorType.BIT_XOR, OperatorType.ASSIGN_BIT_XOR);
-            case '|' -> singleOrDuplicateOperator(OperatorType.BIT_OR, OperatorType.ASSIGN_BIT_OR, OperatorType.LOG_OR);
-            case '&' ->
-                    singleOrDuplicateOperator(OperatorType.BIT_AND, OperatorType.ASSIGN_BIT_AND, OperatorType.LOG_AND);
-            case '<' ->
-                    lessOrMoreShift(OperatorType.LESS, OperatorType.BIT_SHIFT_LEFT, OperatorType.LESS_EQUAL, OperatorType.ASSIGN_BIT_SHIFT_LEFT);
-            case '>' ->
-                    lessOrMoreShift(OperatorType.MORE, OperatorType.BIT_SHIFT_RIGHT, OperatorType.MORE_EQUAL, OperatorType.ASSIGN_BIT_SHIFT_RIGHT);
-            default -> {
-                if (isBoolean()) {
-                    yield lexBool();
-                } else if (isIdentifierChar(peek())) {
-                    if (isNumeric(peek())) {
-                        yield lexNumber();
-                    }
-                    yield lexIdentifierOrKeyword();
-                }
-                yield new ErrorToken(String.valueOf(peek()), buildSpan(1));
-            }
+        return switch (charClass(peek())) {
+            case LETTER -> lexIdentifierOrKeyword();
+            case DIGIT -> lexNumber();
+            case PUNCTUATION -> lexPunctuation();
+            default -> token(TokenKind.ERROR, 1);
         };
+    }
+
+    /// {@return the offset of the first character of the last scanned token}
+    public int tokenStart() {
+        return this.tokenStart;
+    }
+
+    /// {@return the offset after the last character of the last scanned token}
+    public int tokenEnd() {
+        return this.pos;
+    }
+
+    /// {@return the span of the last scanned token}
+    public Span span() {
+        return new Span.OffsetSpan(this.lines, this.tokenStart, this.pos);
+    }
 
-        return Optional.of(t);
+    public String source() {
+        return this.source;
     }
 
-    private @Nullable ErrorToken skipWhitespace() {
+    /// {@return the positions of the offsets in the source}
+    public LineMap lines() {
+        return this.lines;
+    }
+
+    // returns where an unterminated multi line comment starts, -1 if there is none
+    private int skipWhitespace() {
         enum CommentType {
             SINGLE_LINE,
             MULTI_LINE
@@ -84,8 +157,6 @@ public class Lexer {
                 case ' ', '\t' -> this.pos++;
                 case '\n', '\r' -> {
                     this.pos++;
-                    this.lineStart = this.pos;
-                    this.line++;
                     if (currentCommentType == CommentType.SINGLE_LINE) {
                         currentCommentType = null;
                     }
@@ -105,7 +176,7 @@ public class Lexer {
                             this.pos++;
                             continue;
                         } else {
-                            return null;
+                            return -1;
                         }
                         commentStart = this.pos;
                         this.pos += 2;
@@ -116,7 +187,7 @@ public class Lexer {
                         this.pos++;
                         continue;
                     }
-                    return null;
+                    return -1;
                 }
                 default -> {
                     if (currentCommentType == CommentType.MULTI_LINE) {
@@ -132,45 +203,48 @@ public class Lexer {
                         this.pos++;
                         continue;
                     }
-                    return null;
+                    return -1;
                 }
             }
         }
         if (!hasMore(0) && currentCommentType == CommentType.MULTI_LINE) {
-            return new ErrorToken(this.source.substring(commentStart), buildSpan(0));
+            return commentStart;
         }
-        return null;
-    }
-
-    private Separator separator(SeparatorType parenOpen) {
-        return new Separator(parenOpen, buildSpan(1));
+        return -1;
     }
 
-    private Token lexIdentifierOrKeyword() {
+    private int lexIdentifierOrKeyword() {
         int off = 1;
-        while (hasMore(off) && isIdentifierChar(peek(off))) {
+        while (hasMore(off) && isIdentifierPart(peek(off))) {
             off++;
         }
-        String id = this.source.substring(this.pos, this.pos + off);
-        // This is a naive solution. Using a better data structure (hashmap, trie) likely performs better.
-        for (KeywordType value : KeywordType.values()) {
-            if (value.keyword().equals(id)) {
-                return new Keyword(value, buildSpan(off));
-            }
+        int slot = keywordSlot(peek(), peek(off - 1), off);
+        String keyword = KEYWORDS[slot];
+        if (keyword != null && keyword.length() == off && this.source.regionMatches(this.pos, keyword, 0, off)) {
+            return token(KEYWORD_KINDS[slot], off);
         }
-        return new Identifier(id, buildSpan(off));
+        return token(TokenKind.IDENTIFIER, off);
     }
 
-    //we check before method use whether true and false are the only cases -> use else as default
-    private Token lexBool() {
-        if (isTrue()) {
-            return new BooleanLiteral("true", buildSpan(4));
-        } else {
-            return new BooleanLiteral("false", buildSpan(5));
+    // the longest operator or separator, a character that starts none is an error
+    private int lexPunctuation() {
+        int kind = TokenKind.ERROR;
+        int length = 1;
+        int state = 0;
+        for (int off = 0; hasMore(off) && peek(off) < 128; off++) {
+            state = TRANSITIONS[state * 128 + peek(off)];
+            if (state < 0) {
+                break;
+            }
+            if (ACCEPTS[state] != TokenKind.END) {
+                kind = ACCEPTS[state];
+                length = off + 1;
+            }
         }
+        return token(kind, length);
     }
 
-    private Token lexNumber() {
+    private int lexNumber() {
         if (isHexPrefix()) {
             int off = 2;
             while (hasMore(off) && isHex(peek(off))) {
@@ -178,9 +252,9 @@ public class Lexer {
             }
             if (off == 2) {
                 // 0x without any further hex digits
-                return new ErrorToken(this.source.substring(this.pos, this.pos + off), buildSpan(2));
+                return token(TokenKind.ERROR, 2);
             }
-            return new NumberLiteral(this.source.substring(this.pos, this.pos + off), 16, buildSpan(off));
+            return token(TokenKind.HEXADECIMAL, off);
         }
         int off = 1;
         while (hasMore(off) && isNumeric(peek(off))) {
@@ -188,109 +262,99 @@ public class Lexer {
         }
         if (peek() == '0' && off > 1) {
             // leading zero is not allowed
-            return new ErrorToken(this.source.substring(this.pos, this.pos + off), buildSpan(off));
+            return token(TokenKind.ERROR, off);
         }
-        return new NumberLiteral(this.source.substring(this.pos, this.pos + off), 10, buildSpan(off));
+        return token(TokenKind.DECIMAL, off);
     }
 
     private boolean isHexPrefix() {
         return peek() == '0' && hasMore(1) && (peek(1) == 'x' || peek(1) == 'X');
     }
 
-    private boolean isIdentifierChar(char c) {
-        return c == '_'
-                || c >= 'a' && c <= 'z'
-                || c >= 'A' && c <= 'Z'
-                || c >= '0' && c <= '9';
+    private static byte charClass(char c) {
+        return c < 128 ? CLASSES[c] : OTHER;
     }
 
-    private boolean isBoolean() {
-        return (isFalse() || isTrue());
+    private static boolean isIdentifierPart(char c) {
+        byte charClass = charClass(c);
+        return charClass == LETTER || charClass == DIGIT;
     }
 
-    private boolean isTrue() {
-        return (peekStringEquals("true"));
+    private static boolean isNumeric(char c) {
+        return charClass(c) == DIGIT;
     }
 
-    private boolean isFalse() {
-        return (peekStringEquals("false"));
+    private static boolean isHex(char c) {
+        return isNumeric(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
     }
 
-    private boolean isNumeric(char c) {
-        return c >= '0' && c <= '9';
+    private int token(int kind, int length) {
+        this.pos += length;
+        return kind;
     }
 
-    private boolean isHex(char c) {
-        return isNumeric(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    private char peek() {
+        return this.source.charAt(this.pos);
     }
 
-    private Token singleOrAssign(OperatorType single, OperatorType assign) {
-        if (hasMore(1) && peek(1) == '=') {
-            return new Operator(assign, buildSpan(2));
-        }
-        return new Operator(single, buildSpan(1));
+    private boolean hasMore(int offset) {
+        return this.pos + offset < this.source.length();
     }
 
-    private Token lessOrMoreShift(OperatorType single, OperatorType tuple, OperatorType equalTuple, OperatorType triple) {
-        char singleOperator = single.toString().charAt(0);
+    private char peek(int offset) {
+        return this.source.charAt(this.pos + offset);
+    }
 
-        if (hasMore(2) && peek(1) == singleOperator && peek(2) == '=') {
-            return new Operator(triple, buildSpan(3));
-        } else if (hasMore(1) && peek(1) == singleOperator) {
-            return new Operator(tuple, buildSpan(2));
-        } else if (hasMore(1) && peek(1) == '=') {
-            return new Operator(equalTuple, buildSpan(2));
+    private static void addPunctuation(String text, int kind, List<int[]> states, List<Integer> accepts) {
+        if (states.isEmpty()) {
+            states.add(noTransitions());
+            accepts.add(TokenKind.END);
+        }
+        CLASSES[text.charAt(0)] = PUNCTUATION;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int next = states.get(state)[text.charAt(i)];
+            if (next < 0) {
+                next = states.size();
+                states.add(noTransitions());
+                accepts.add(TokenKind.END);
+                states.get(state)[text.charAt(i)] = next;
+            }
+            state = next;
         }
-        return new Operator(single, buildSpan(1));
+        accepts.set(state, kind);
     }
 
-    private Token singleOrDuplicateOperator(OperatorType single, OperatorType single_assign, OperatorType duplicate) {
-        char singleOperator = single.toString().charAt(0);
-
-        if (!hasMore(1)) return new Operator(single, buildSpan(1));
-
-        if (peek(1) == singleOperator) return new Operator(duplicate, buildSpan(2));
-        if (peek(1) == '=') return new Operator(single_assign, buildSpan(2));
-
-        return new Operator(single, buildSpan(1));
+    private static int[] noTransitions() {
+        int[] transitions = new int[128];
+        Arrays.fill(transitions, -1);
+        return transitions;
     }
 
-    private Span buildSpan(int proceed) {
-        int start = this.pos;
-        this.pos += proceed;
-        Position.SimplePosition s = new Position.SimplePosition(this.line, start - this.lineStart);
-        Position.SimplePosition e = new Position.SimplePosition(this.line, start - this.lineStart + proceed);
-        return new Span.SimpleSpan(s, e);
+    private static int keywordSlot(char first, char last, int length) {
+        return slot(first, last, length, FIRST_FACTOR, LAST_FACTOR);
     }
 
-    private char peek() {
-        return this.source.charAt(this.pos);
+    private static int slot(char first, char last, int length, int firstFactor, int lastFactor) {
+        return (first * firstFactor + last * lastFactor + length) & (KEYWORD_SLOTS - 1);
     }
 
-    private boolean peekStringEquals(String expected) {
-        int length = expected.length();
-        if (hasMore(length)) {
-            boolean peekIsExpected = true;
-
-            for (int i = 0; i < length; i++) {
-                if (expected.charAt(i) != peek(i)) {
-                    peekIsExpected = false;
-                    break;
+    // the first factors for which no two words share a slot
+    private static int[] perfectHashFactors(List<String> words) {
+        for (int first = 1; first < KEYWORD_SLOTS; first++) {
+            for (int last = 1; last < KEYWORD_SLOTS; last++) {
+                boolean[] used = new boolean[KEYWORD_SLOTS];
+                boolean perfect = true;
+                for (String word : words) {
+                    int slot = slot(word.charAt(0), word.charAt(word.length() - 1), word.length(), first, last);
+                    perfect &= !used[slot];
+                    used[slot] = true;
+                }
+                if (perfect) {
+                    return new int[]{first, last};
                 }
             }
-
-            return peekIsExpected;
         }
-
-        return false;
+        throw new IllegalStateException("no perfect hash for the keywords in " + KEYWORD_SLOTS + " slots");
     }
-
-    private boolean hasMore(int offset) {
-        return this.pos + offset < this.source.length();
-    }
-
-    private char peek(int offset) {
-        return this.source.charAt(this.pos + offset);
-    }
-
 }
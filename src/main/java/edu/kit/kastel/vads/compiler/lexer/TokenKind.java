@@ -0,0 +1,73 @@
+package edu.kit.kastel.vads.compiler.lexer;
+
+import edu.kit.kastel.vads.compiler.Span;
+import edu.kit.kastel.vads.compiler.lexer.Operator.OperatorType;
+import edu.kit.kastel.vads.compiler.lexer.Separator.SeparatorType;
+
+/// The kinds of tokens as `int`s, so that tokens can be stored without an object each.
+///
+/// Operators, separators and keywords have one kind per type, their text is fixed. The other kinds take
+/// their text from the source.
+public final class TokenKind {
+    /// No token, the end of the input
+    public static final int END = -1;
+    private static final int OPERATOR = 0;
+    private static final int SEPARATOR = OPERATOR + OperatorType.values().length;
+    private static final int KEYWORD = SEPARATOR + SeparatorType.values().length;
+    public static final int IDENTIFIER = KEYWORD + KeywordType.values().length;
+    public static final int DECIMAL = IDENTIFIER + 1;
+    public static final int HEXADECIMAL = DECIMAL + 1;
+    public static final int BOOLEAN = HEXADECIMAL + 1;
+    public static final int ERROR = BOOLEAN + 1;
+
+    private static final OperatorType[] OPERATORS = OperatorType.values();
+    private static final SeparatorType[] SEPARATORS = SeparatorType.values();
+    private static final KeywordType[] KEYWORDS = KeywordType.values();
+
+    private TokenKind() {
+
+    }
+
+    public static int operator(OperatorType type) {
+        return OPERATOR + type.ordinal();
+    }
+
+    public static int separator(SeparatorType type) {
+        return SEPARATOR + type.ordinal();
+    }
+
+    public static int keyword(KeywordType type) {
+        return KEYWORD + type.ordinal();
+    }
+
+    /// {@return whether the text of tokens of the kind is taken from the source}
+    public static boolean hasText(int kind) {
+        return kind >= IDENTIFIER;
+    }
+
+    /// {@return the token of the kind, the text is only used by kinds that [have text][#hasText(int)]}
+    public static Token token(int kind, String text, Span span) {
+        if (kind < SEPARATOR) {
+            return new Operator(OPERATORS[kind - OPERATOR], span);
+        }
+        if (kind < KEYWORD) {
+            return new Separator(SEPARATORS[kind - SEPARATOR], span);
+        }
+        if (kind < IDENTIFIER) {
+            return new Keyword(KEYWORDS[kind - KEYWORD], span);
+        }
+        if (kind == IDENTIFIER) {
+            return new Identifier(text, span);
+        }
+        if (kind == DECIMAL || kind == HEXADECIMAL) {
+            return new NumberLiteral(text, kind == DECIMAL ? 10 : 16, span);
+        }
+        if (kind == BOOLEAN) {
+            return new BooleanLiteral(text, span);
+        }
+        if (kind == ERROR) {
+            return new ErrorToken(text, span);
+        }
+        throw new IllegalArgumentException("not a token kind: " + kind);
+    }
+}
@@ -1,5 +1,6 @@
 package edu.kit.kastel.vads.compiler.parser;
 
+import edu.kit.kastel.vads.compiler.Span;
 import edu.kit.kastel.vads.compiler.lexer.Identifier;
 import edu.kit.kastel.vads.compiler.lexer.Keyword;
 import edu.kit.kastel.vads.compiler.lexer.KeywordType;
@@ -9,29 +10,43 @@ import edu.kit.kastel.vads.compiler.lexer.Operator.OperatorType;
 import edu.kit.kastel.vads.compiler.lexer.Separator;
 import edu.kit.kastel.vads.compiler.lexer.Separator.SeparatorType;
 import edu.kit.kastel.vads.compiler.lexer.Token;
+import edu.kit.kastel.vads.compiler.lexer.TokenKind;
+import org.jspecify.annotations.Nullable;
 
-import java.util.List;
-import java.util.Optional;
-import java.util.stream.Stream;
-
+/// The tokens of the source for the parser, lexed on demand.
+///
+/// Only the tokens the parser can look ahead at are kept, as kinds and offsets in a ring buffer. The memory for
+/// tokens doesn't grow with the input, and a parse error is reported before the rest of the input is lexed.
+/// Only the token the parser peeks at is created as an object.
 public class TokenSource {
-    private final List<Token> tokens;
-    private int idx;
+    // the parser decides by the next token only
+    private static final int LOOKAHEAD = 1;
 
-    public TokenSource(Lexer lexer) {
-        this.tokens = Stream.generate(lexer::nextToken)
-            .takeWhile(Optional::isPresent)
-            .map(Optional::orElseThrow)
-            .toList();
-    }
+    private final Lexer lexer;
+    private final int[] kinds = new int[LOOKAHEAD];
+    private final int[] starts = new int[LOOKAHEAD];
+    private final int[] ends = new int[LOOKAHEAD];
+    // the slot of the next token and the number of tokens lexed ahead
+    private int first;
+    private int count;
+    private @Nullable Token current;
 
-    TokenSource(List<Token> tokens) {
-        this.tokens = List.copyOf(tokens);
+    public TokenSource(Lexer lexer) {
+        this.lexer = lexer;
     }
 
     public Token peek() {
         expectHasMore();
-        return this.tokens.get(this.idx);
+        Token token = this.current;
+        if (token == null) {
+            int start = this.starts[this.first];
+            int end = this.ends[this.first];
+            int kind = this.kinds[this.first];
+            String text = TokenKind.hasText(kind) ? this.lexer.source().substring(start, end) : "";
+            token = TokenKind.token(kind, text, new Span.OffsetSpan(this.lexer.lines(), start, end));
+            this.current = token;
+        }
+        return token;
     }
 
     public Keyword expectKeyword(KeywordType type) {
@@ -39,7 +54,7 @@ public class TokenSource {
         if (!(token instanceof Keyword kw) || kw.type() != type) {
             throw new ParseException("expected keyword '" + type + "' but got " + token);
         }
-        this.idx++;
+        advance();
         return kw;
     }
 
@@ -48,7 +63,7 @@ public class TokenSource {
         if (!(token instanceof Separator sep) || sep.type() != type) {
             throw new ParseException("expected separator '" + type + "' but got " + token);
         }
-        this.idx++;
+        advance();
         return sep;
     }
 
@@ -57,7 +72,7 @@ public class TokenSource {
         if (!(token instanceof Operator op) || op.type() != type) {
             throw new ParseException("expected operator '" + type + "' but got " + token);
         }
-        this.idx++;
+        advance();
         return op;
     }
     public Identifier expectIdentifier() {
@@ -65,22 +80,44 @@ public class TokenSource {
         if (!(token instanceof Identifier ident)) {
             throw new ParseException("expected identifier but got " + token);
         }
-        this.idx++;
+        advance();
         return ident;
     }
 
     public Token consume() {
         Token token = peek();
-        this.idx++;
+        advance();
         return token;
     }
 
     public boolean hasMore() {
-        return this.idx < this.tokens.size();
+        return fill(1);
+    }
+
+    // lexes until the number of tokens are ahead, false if the input ends before
+    private boolean fill(int tokens) {
+        while (this.count < tokens) {
+            int kind = this.lexer.scan();
+            if (kind == TokenKind.END) {
+                return false;
+            }
+            int slot = (this.first + this.count) % LOOKAHEAD;
+            this.kinds[slot] = kind;
+            this.starts[slot] = this.lexer.tokenStart();
+            this.ends[slot] = this.lexer.tokenEnd();
+            this.count++;
+        }
+        return true;
+    }
+
+    private void advance() {
+        this.first = (this.first + 1) % LOOKAHEAD;
+        this.count--;
+        this.current = null;
     }
 
     private void expectHasMore() {
-        if (this.idx >= this.tokens.size()) {
+        if (!hasMore()) {
             throw new ParseException("reached end of file");
         }
     }
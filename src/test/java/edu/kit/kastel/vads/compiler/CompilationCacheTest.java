@@ -0,0 +1,136 @@
+package edu.kit.kastel.vads.compiler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompilationCacheTest {
+    private static final byte[] SOURCE = "int main() { return 0; }".getBytes(StandardCharsets.UTF_8);
+    private static final String VERSION = "1";
+
+    @TempDir
+    Path directory;
+    private Path cacheDirectory;
+    private Path executable;
+
+    @BeforeEach
+    void writeExecutable() throws IOException {
+        this.cacheDirectory = this.directory.resolve("cache");
+        this.executable = Files.write(this.directory.resolve("program"), new byte[100]);
+    }
+
+    @Test
+    void storedProgramIsRestored() throws IOException {
+        CompilationCache cache = new CompilationCache(this.cacheDirectory, 1 << 20, VERSION);
+        String key = cache.key(SOURCE, "-O1");
+        Path output = this.directory.resolve("restored");
+        assertFalse(cache.restore(key, output));
+        assertFalse(Files.exists(output));
+
+        Path assembly = Files.writeString(this.directory.resolve("program.s"), "main:\n");
+        cache.store(key, this.executable, assembly);
+
+        assertTrue(cache.restore(key, output));
+        assertArrayEquals(Files.readAllBytes(this.executable), Files.readAllBytes(output));
+        assertEquals("main:\n", Files.readString(Path.of(output + ".s")));
+    }
+
+    @Test
+    void keyDependsOnSourceAndOptions() {
+        CompilationCache cache = new CompilationCache(this.cacheDirectory, 1 << 20, VERSION);
+        assertEquals(cache.key(SOURCE, "-O1 CHORDAL builtin"), cache.key(SOURCE.clone(), "-O1 CHORDAL builtin"));
+        assertNotEquals(cache.key(SOURCE, "-O1 CHORDAL builtin"), cache.key(SOURCE, "-O2 CHORDAL builtin"));
+        assertNotEquals(cache.key(SOURCE, "-O1 CHORDAL builtin"), cache.key(SOURCE, "-O1 CHORDAL gcc"));
+        assertNotEquals(cache.key(SOURCE, "-O1"), cache.key("int main() { return 1; }".getBytes(), "-O1"));
+        // the separator keeps the end of the source apart from the options
+        assertNotEquals(cache.key("ab".getBytes(), "c"), cache.key("a".getBytes(), "bc"));
+    }
+
+    @Test
+    void keyDependsOnCompilerVersion() {
+        CompilationCache other = new CompilationCache(this.cacheDirectory, 1 << 20, "2");
+        assertNotEquals(new CompilationCache(this.cacheDirectory, 1 << 20, VERSION).key(SOURCE, "-O1"),
+                other.key(SOURCE, "-O1"));
+    }
+
+    @Test
+    void recompiledClassChangesTheVersion() throws IOException {
+        Path classes = Files.createDirectories(this.directory.resolve("classes/edu"));
+        Files.write(classes.resolve("Main.class"), new byte[] {1, 2});
+        Files.write(classes.resolve("Lexer.class"), new byte[] {3});
+        String version = CompilationCache.contentHash(this.directory.resolve("classes"));
+        assertEquals(version, CompilationCache.contentHash(this.directory.resolve("classes")));
+
+        Files.write(classes.resolve("Main.class"), new byte[] {1, 3});
+        assertNotEquals(version, CompilationCache.contentHash(this.directory.resolve("classes")));
+    }
+
+    @Test
+    void compilerOnTheClassPathHasAVersion() {
+        assertNotNull(CompilationCache.compilerVersion());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        // room for two entries
+        CompilationCache cache = new CompilationCache(this.cacheDirectory, 200, VERSION);
+        String first = cache.key(SOURCE, "first");
+        String second = cache.key(SOURCE, "second");
+        String third = cache.key(SOURCE, "third");
+        cache.store(first, this.executable, null);
+        cache.store(second, this.executable, null);
+        Files.setLastModifiedTime(this.cacheDirectory.resolve(first), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(this.cacheDirectory.resolve(second), FileTime.fromMillis(0));
+        // a hit makes the second entry the most recently used one
+        assertTrue(cache.restore(second, this.directory.resolve("restored")));
+
+        cache.store(third, this.executable, null);
+
+        assertFalse(Files.exists(this.cacheDirectory.resolve(first)));
+        assertTrue(Files.exists(this.cacheDirectory.resolve(second)));
+        assertTrue(Files.exists(this.cacheDirectory.resolve(third)));
+    }
+
+    @Test
+    void concurrentStoresOfTheSameKeyKeepOneEntry() throws Exception {
+        int instances = 8;
+        CompilationCache cache = new CompilationCache(this.cacheDirectory, 1 << 20, VERSION);
+        String key = cache.key(SOURCE, "-O1");
+        CyclicBarrier start = new CyclicBarrier(instances);
+        List<Future<?>> stores = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(instances)) {
+            for (int i = 0; i < instances; i++) {
+                // every instance has its own cache object, like separate compiler processes
+                CompilationCache instance = new CompilationCache(this.cacheDirectory, 1 << 20, VERSION);
+                stores.add(executor.submit(() -> {
+                    start.await();
+                    instance.store(key, this.executable, null);
+                    return null;
+                }));
+            }
+            for (Future<?> store : stores) {
+                store.get();
+            }
+        }
+
+        try (Stream<Path> entries = Files.list(this.cacheDirectory)) {
+            assertEquals(List.of(this.cacheDirectory.resolve(key)), entries.toList());
+        }
+        assertTrue(cache.restore(key, this.directory.resolve("restored")));
+    }
+}
@@ -0,0 +1,54 @@
+package edu.kit.kastel.vads.compiler;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.CodeGenerator;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineFunction;
+import edu.kit.kastel.vads.compiler.backend.regalloc.AllocationStrategy;
+import edu.kit.kastel.vads.compiler.ir.IrGraph;
+import edu.kit.kastel.vads.compiler.ir.SsaTranslation;
+import edu.kit.kastel.vads.compiler.ir.optimize.LocalValueNumbering;
+import edu.kit.kastel.vads.compiler.lexer.Lexer;
+import edu.kit.kastel.vads.compiler.parser.Parser;
+import edu.kit.kastel.vads.compiler.parser.TokenSource;
+import edu.kit.kastel.vads.compiler.parser.ast.ProgramTree;
+import edu.kit.kastel.vads.compiler.semantic.SemanticAnalysis;
+
+import java.util.List;
+
+/// Runs the front and middle end of [Main] on sources in tests.
+public final class Programs {
+    private Programs() {
+    }
+
+    /// {@return the graphs of the analyzed source, in program order}
+    public static List<IrGraph> graphs(String source) {
+        ProgramTree program = new Parser(new TokenSource(Lexer.forString(source))).parseProgram();
+        new SemanticAnalysis(program).analyze();
+        return program.topLevelTrees().stream()
+                .map(function -> new SsaTranslation(function, new LocalValueNumbering()).translate())
+                .toList();
+    }
+
+    /// {@return the allocated machine code of the source}
+    public static List<MachineFunction> functions(String source, AllocationStrategy allocationStrategy) {
+        return new CodeGenerator(allocationStrategy).lower(graphs(source));
+    }
+
+    /// A loop over more values than there are registers, so that every allocator spills.
+    public static String manyValues(int count) {
+        StringBuilder source = new StringBuilder("int main() {\n");
+        for (int i = 0; i < count; i++) {
+            source.append("  int v").append(i).append(" = ").append(i * 3 + 1).append(";\n");
+        }
+        source.append("  for (int k = 0; k < 7; k += 1) {\n");
+        for (int i = 0; i < count; i++) {
+            source.append("    v").append(i).append(" = v").append(i).append(" * (k + ").append(i)
+                    .append(") + (v").append((i + 1) % count).append(" << 2) - v").append((i + 5) % count)
+                    .append(";\n");
+        }
+        source.append("  }\n  return v0");
+        for (int i = 1; i < count; i++) {
+            source.append(" + v").append(i);
+        }
+        return source.append(";\n}\n").toString();
+    }
+}
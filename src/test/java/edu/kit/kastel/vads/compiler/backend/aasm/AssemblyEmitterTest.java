@@ -0,0 +1,40 @@
+package edu.kit.kastel.vads.compiler.backend.aasm;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.PhysicalRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64Register;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AssemblyEmitterTest {
+    private static final PhysicalRegister EAX = X86_64PhysicalRegisters.get(X86_64Register.RAX);
+    private static final PhysicalRegister ECX = X86_64PhysicalRegisters.get(X86_64Register.RCX);
+
+    @Test
+    void addresses() throws IOException {
+        assertEquals("  leal 4(%rax, %rcx, 2), %ecx\n", emit(new Address(EAX, ECX, 2, 4)));
+        assertEquals("  leal (%rax), %ecx\n", emit(new Address(EAX, null, 1, 0)));
+        assertEquals("  leal -8(, %rcx, 8), %ecx\n", emit(new Address(null, ECX, 8, -8)));
+    }
+
+    @Test
+    void absoluteAddressHasNoParentheses() throws IOException {
+        assertEquals("  leal 9, %ecx\n", emit(new Address(null, null, 1, 9)));
+    }
+
+    private static String emit(Address address) throws IOException {
+        MachineFunction function = new MachineFunction("main");
+        MachineBasicBlock block = new MachineBasicBlock(new Label("main_start"));
+        block.append(new MachineInstruction(Opcode.LEA, address, ECX));
+        function.blocks().add(block);
+        StringWriter output = new StringWriter();
+        new AssemblyEmitter(output).emit(function);
+        return output.toString().substring("_main:\n".length());
+    }
+}
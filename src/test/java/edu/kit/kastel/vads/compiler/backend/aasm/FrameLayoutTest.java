@@ -0,0 +1,39 @@
+package edu.kit.kastel.vads.compiler.backend.aasm;
+
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64PhysicalRegisters;
+import edu.kit.kastel.vads.compiler.backend.regalloc.X86_64Register;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FrameLayoutTest {
+
+    @Test
+    void smallLeafFrameUsesTheRedZone() {
+        assertEquals(new FrameLayout(0, -16), FrameLayout.of(function(16)));
+    }
+
+    @Test
+    void largeFrameIsAligned() {
+        assertEquals(new FrameLayout(136, 0), FrameLayout.of(function(FrameLayout.RED_ZONE + 4)));
+    }
+
+    @Test
+    void pushKeepsTheFrameOutOfTheRedZone() {
+        MachineFunction function = function(16);
+        function.entry().instructions().addFirst(
+            new MachineInstruction(Opcode.PUSHQ, X86_64PhysicalRegisters.get(X86_64Register.RBX)));
+        assertEquals(new FrameLayout(24, 0), FrameLayout.of(function));
+    }
+
+    private static MachineFunction function(int frameSize) {
+        MachineFunction function = new MachineFunction("f");
+        MachineBasicBlock block = new MachineBasicBlock(new Label("f_entry"));
+        block.append(new MachineInstruction(Opcode.RET));
+        function.blocks().add(block);
+        function.setFrameSize(frameSize);
+        return function;
+    }
+}
@@ -0,0 +1,114 @@
+package edu.kit.kastel.vads.compiler.backend.mir;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.regalloc.Register;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelCopyTest {
+    private final VirtualRegister a = new VirtualRegister(0);
+    private final VirtualRegister b = new VirtualRegister(1);
+    private final VirtualRegister c = new VirtualRegister(2);
+    private final VirtualRegister d = new VirtualRegister(3);
+    private final List<Register> scratches = new ArrayList<>();
+
+    @Test
+    void swapTakesThreeMoves() {
+        ParallelCopy copy = new ParallelCopy();
+        copy.add(b, a);
+        copy.add(a, b);
+        List<MachineInstruction> moves = copy.sequentialize(this::scratch);
+
+        assertEquals(3, moves.size());
+        assertEquals(1, scratches.size());
+        assertEquals(Map.of(a, value(b), b, value(a)), run(moves, a, b));
+    }
+
+    @Test
+    void cycleTakesOneMoveMoreThanCopies() {
+        ParallelCopy copy = new ParallelCopy();
+        copy.add(b, a);
+        copy.add(c, b);
+        copy.add(d, c);
+        copy.add(a, d);
+        List<MachineInstruction> moves = copy.sequentialize(this::scratch);
+
+        assertEquals(5, moves.size());
+        assertEquals(Map.of(a, value(b), b, value(c), c, value(d), d, value(a)), run(moves, a, b, c, d));
+    }
+
+    @Test
+    void chainNeedsNoScratch() {
+        ParallelCopy copy = new ParallelCopy();
+        copy.add(a, b);
+        copy.add(b, c);
+        copy.add(c, d);
+        List<MachineInstruction> moves = copy.sequentialize(this::scratch);
+
+        assertEquals(3, moves.size());
+        assertTrue(scratches.isEmpty());
+        assertEquals(Map.of(b, value(a), c, value(b), d, value(c)), run(moves, b, c, d));
+    }
+
+    @Test
+    void cycleWithBranchReadsTheSavedValue() {
+        // a <- b, b <- a and c <- a: the old value of a is needed twice
+        ParallelCopy copy = new ParallelCopy();
+        copy.add(b, a);
+        copy.add(a, b);
+        copy.add(a, c);
+        List<MachineInstruction> moves = copy.sequentialize(this::scratch);
+
+        assertTrue(scratches.isEmpty(), "c keeps the old value of a, no scratch is needed");
+        assertEquals(Map.of(a, value(b), b, value(a), c, value(a)), run(moves, a, b, c));
+    }
+
+    @Test
+    void immediatesAreMovedLastAndSelfCopiesDropped() {
+        ParallelCopy copy = new ParallelCopy();
+        copy.add(new Immediate(42), a);
+        copy.add(a, b);
+        copy.add(c, c);
+        List<MachineInstruction> moves = copy.sequentialize(this::scratch);
+
+        assertEquals(2, moves.size());
+        assertEquals(Map.of(a, 42, b, value(a)), run(moves, a, b));
+    }
+
+    private Register scratch() {
+        Register scratch = new VirtualRegister(100 + scratches.size());
+        scratches.add(scratch);
+        return scratch;
+    }
+
+    private static int value(Operand operand) {
+        return switch (operand) {
+            case Immediate immediate -> immediate.value();
+            case VirtualRegister register -> 1000 + register.id();
+            default -> throw new IllegalArgumentException(operand.toString());
+        };
+    }
+
+    // the values of the registers after the moves, every register starts with its own value
+    private static Map<Register, Integer> run(List<MachineInstruction> moves, Register... registers) {
+        Map<Operand, Integer> values = new HashMap<>();
+        for (MachineInstruction move : moves) {
+            assertEquals(Opcode.MOV, move.opcode());
+            Operand source = move.operand(0);
+            values.put(move.operand(1), values.getOrDefault(source, value(source)));
+        }
+        Map<Register, Integer> result = new HashMap<>();
+        for (Register register : registers) {
+            result.put(register, values.getOrDefault(register, value(register)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessAnalyzer;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/// Straight-line functions for the allocator tests and a check of their allocation against the liveness.
+final class Allocations {
+    static final PhysicalRegister EAX = X86_64PhysicalRegisters.get(X86_64Register.RAX);
+    static final PhysicalRegister ECX = X86_64PhysicalRegisters.get(X86_64Register.RCX);
+    static final PhysicalRegister EDX = X86_64PhysicalRegisters.get(X86_64Register.RDX);
+
+    private Allocations() {
+    }
+
+    static VirtualRegister[] temps(int count) {
+        VirtualRegister[] temps = new VirtualRegister[count];
+        for (int i = 0; i < count; i++) {
+            temps[i] = new VirtualRegister(i);
+        }
+        return temps;
+    }
+
+    static MachineInstruction instruction(Opcode opcode, Operand... operands) {
+        return new MachineInstruction(opcode, operands);
+    }
+
+    /// {@return the liveness of a function of one block with the instructions, which returns the last temp}
+    static List<LivenessLine> liveness(Register result, MachineInstruction... instructions) {
+        MachineFunction function = new MachineFunction("main");
+        MachineBasicBlock block = new MachineBasicBlock(new Label("main_start"));
+        for (MachineInstruction instruction : instructions) {
+            block.append(instruction);
+        }
+        block.append(new MachineInstruction(Opcode.MOV, result, EAX));
+        block.append(new MachineInstruction(Opcode.RET));
+        function.blocks().add(block);
+        LivenessAnalyzer analyzer = new LivenessAnalyzer(function);
+        analyzer.calculateLiveness();
+        return analyzer.livenessLines;
+    }
+
+    /// `temps[i] = temps[i - 1] + i`, all of them live until they are summed up into the first one, so that
+    /// `count` values are live at once. None of them is a constant that could be rematerialized.
+    static List<MachineInstruction> liveAtOnce(VirtualRegister[] temps) {
+        List<MachineInstruction> instructions = new ArrayList<>();
+        instructions.add(instruction(Opcode.MOV, new Immediate(1), temps[0]));
+        instructions.add(instruction(Opcode.IMUL, temps[0], temps[0]));
+        for (int i = 1; i < temps.length; i++) {
+            instructions.add(instruction(Opcode.MOV, temps[i - 1], temps[i]));
+            instructions.add(instruction(Opcode.ADD, new Immediate(i), temps[i]));
+        }
+        for (int i = 1; i < temps.length; i++) {
+            instructions.add(instruction(Opcode.ADD, temps[i], temps[0]));
+        }
+        return instructions;
+    }
+
+    /// {@return the allocation of the allocator, which must neither spill nor break the liveness}
+    static Map<Register, PhysicalRegister> allocate(MachineRegisterAllocator allocator, List<LivenessLine> lines) {
+        assertFalse(allocator.spills());
+        Map<Register, PhysicalRegister> allocation = allocator.allocate();
+        assertValid(lines, allocation);
+        return allocation;
+    }
+
+    static PhysicalRegister location(Map<Register, PhysicalRegister> allocation, Register register) {
+        if (register instanceof PhysicalRegister physical) {
+            return physical;
+        }
+        PhysicalRegister location = allocation.get(register);
+        assertNotNull(location, "no location for " + register);
+        return location;
+    }
+
+    /// Values live at the same time must be in different locations, and neither a written register nor one
+    /// that an instruction clobbers may hold a live value.
+    static void assertValid(List<LivenessLine> lines, Map<Register, PhysicalRegister> allocation) {
+        for (LivenessLine line : lines) {
+            for (Register live : line.liveInVariables) {
+                for (Register other : line.liveInVariables) {
+                    if (!live.equals(other)) {
+                        assertNotEquals(location(allocation, live), location(allocation, other),
+                                live + " and " + other + " share a location at " + line);
+                    }
+                }
+                if (line.target.isValid() && !live.equals(line.target) && !isMoveOf(line, live)) {
+                    assertNotEquals(location(allocation, line.target), location(allocation, live),
+                            line.target + " overwrites " + live + " at " + line);
+                }
+                for (Register clobber : line.clobbers) {
+                    if (!live.equals(clobber)) {
+                        assertNotEquals(clobber, location(allocation, live), live + " is clobbered at " + line);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isMoveOf(LivenessLine line, Register source) {
+        return line.instruction().isRegisterMove() && line.instruction().operand(0).equals(source);
+    }
+}
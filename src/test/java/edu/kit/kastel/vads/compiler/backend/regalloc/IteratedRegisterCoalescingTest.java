@@ -0,0 +1,48 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static edu.kit.kastel.vads.compiler.backend.regalloc.Allocations.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class IteratedRegisterCoalescingTest {
+    @Test
+    void chainOfMovesIsCoalescedIntoTheResult() {
+        VirtualRegister[] t = temps(3);
+        List<LivenessLine> lines = liveness(t[2],
+                instruction(Opcode.MOV, new Immediate(5), t[0]),
+                instruction(Opcode.IMUL, t[0], t[0]),
+                instruction(Opcode.MOV, t[0], t[1]),
+                instruction(Opcode.NEG, t[1]),
+                instruction(Opcode.MOV, t[1], t[2]),
+                instruction(Opcode.NOT, t[2]));
+        Map<Register, PhysicalRegister> allocation = allocate(new IteratedRegisterCoalescing(lines), lines);
+
+        for (VirtualRegister temp : t) {
+            assertEquals(EAX, allocation.get(temp), temp.toString());
+        }
+    }
+
+    @Test
+    void interferingMoveIsNotCoalesced() {
+        VirtualRegister[] t = temps(2);
+        List<LivenessLine> lines = liveness(t[1],
+                instruction(Opcode.MOV, new Immediate(5), t[0]),
+                instruction(Opcode.IMUL, t[0], t[0]),
+                instruction(Opcode.MOV, t[0], t[1]),
+                instruction(Opcode.NEG, t[1]),
+                instruction(Opcode.ADD, t[0], t[1]));
+        Map<Register, PhysicalRegister> allocation = allocate(new IteratedRegisterCoalescing(lines), lines);
+
+        assertNotEquals(allocation.get(t[0]), allocation.get(t[1]));
+    }
+}
@@ -0,0 +1,75 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineInstruction;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static edu.kit.kastel.vads.compiler.backend.regalloc.Allocations.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/// Checks every [AllocationStrategy] must pass, whatever its coloring.
+class MachineRegisterAllocatorTest {
+    @ParameterizedTest
+    @EnumSource(AllocationStrategy.class)
+    void cliqueNeedsADifferentRegisterForEveryNode(AllocationStrategy strategy) {
+        VirtualRegister[] t = temps(X86_64PhysicalRegisters.registerCount());
+        List<LivenessLine> lines = liveness(t[0], liveAtOnce(t).toArray(MachineInstruction[]::new));
+        Map<Register, PhysicalRegister> allocation = allocate(strategy.create(lines), lines);
+
+        assertEquals(t.length, Set.copyOf(allocation.values()).size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(AllocationStrategy.class)
+    void spillReservesScratchRegisters(AllocationStrategy strategy) {
+        VirtualRegister[] t = temps(X86_64PhysicalRegisters.registerCount() + 4);
+        List<LivenessLine> lines = liveness(t[0], liveAtOnce(t).toArray(MachineInstruction[]::new));
+        MachineRegisterAllocator allocator = strategy.create(lines);
+        Map<Register, PhysicalRegister> allocation = allocator.allocate();
+
+        assertTrue(allocator.spills());
+        assertValid(lines, allocation);
+        for (PhysicalRegister location : allocation.values()) {
+            assertNotEquals(X86_64Register.R14, location.register);
+            assertNotEquals(X86_64Register.R15, location.register);
+        }
+        assertTrue(allocation.values().stream().anyMatch(location -> location.register == X86_64Register.SPILL));
+    }
+
+    @ParameterizedTest
+    @EnumSource(AllocationStrategy.class)
+    void divisionAndShiftKeepTheirRegisters(AllocationStrategy strategy) {
+        VirtualRegister[] t = temps(6);
+        List<LivenessLine> lines = liveness(t[5],
+                instruction(Opcode.MOV, new Immediate(100), t[0]),
+                instruction(Opcode.IMUL, t[0], t[0]),
+                instruction(Opcode.MOV, t[0], t[1]),
+                instruction(Opcode.SAR, new Immediate(3), t[1]),
+                instruction(Opcode.MOV, t[0], t[2]),
+                instruction(Opcode.NEG, t[2]),
+                // t2 / t1, t0 stays live across the division
+                instruction(Opcode.MOV, t[2], EAX),
+                instruction(Opcode.CLTD),
+                instruction(Opcode.IDIV, t[1]),
+                instruction(Opcode.MOV, EAX, t[3]),
+                // t3 << t1, t0 stays live across the shift count
+                instruction(Opcode.MOV, t[1], ECX),
+                instruction(Opcode.MOV, t[3], t[4]),
+                instruction(Opcode.SAL, ECX, t[4]),
+                instruction(Opcode.MOV, t[4], t[5]),
+                instruction(Opcode.ADD, t[0], t[5]));
+        Map<Register, PhysicalRegister> allocation = allocate(strategy.create(lines), lines);
+
+        assertFalse(Set.of(EAX, EDX).contains(allocation.get(t[1])), "divisor in " + allocation.get(t[1]));
+        assertFalse(Set.of(EAX, EDX, ECX).contains(allocation.get(t[0])), "t0 in " + allocation.get(t[0]));
+    }
+}
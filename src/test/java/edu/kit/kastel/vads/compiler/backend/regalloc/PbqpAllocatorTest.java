@@ -0,0 +1,53 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.Immediate;
+import edu.kit.kastel.vads.compiler.backend.mir.Opcode;
+import edu.kit.kastel.vads.compiler.backend.regalloc.liveness.LivenessLine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static edu.kit.kastel.vads.compiler.backend.regalloc.Allocations.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/// The reductions of the solver, RN is needed by the cliques of the [MachineRegisterAllocatorTest].
+class PbqpAllocatorTest {
+    @Test
+    void degreeOneNodeFollowsItsNeighbor() {
+        // t1 only has t0 as neighbor (R1), back-propagation puts it into the register chosen for t0
+        VirtualRegister[] t = temps(2);
+        List<LivenessLine> lines = liveness(t[1],
+                instruction(Opcode.MOV, new Immediate(5), t[0]),
+                instruction(Opcode.IMUL, t[0], t[0]),
+                instruction(Opcode.MOV, t[0], t[1]),
+                instruction(Opcode.ADD, new Immediate(1), t[1]));
+        Map<Register, PhysicalRegister> allocation = allocate(new PbqpAllocator(lines), lines);
+
+        assertEquals(EAX, allocation.get(t[1]));
+        assertEquals(EAX, allocation.get(t[0]));
+    }
+
+    @Test
+    void cycleOfMovesIsCoalesced() {
+        // every temp has two neighbors (R2), folding them into matrices keeps the moves free
+        VirtualRegister[] t = temps(4);
+        List<LivenessLine> lines = liveness(t[0],
+                instruction(Opcode.MOV, new Immediate(5), t[0]),
+                instruction(Opcode.IMUL, t[0], t[0]),
+                instruction(Opcode.MOV, t[0], t[1]),
+                instruction(Opcode.NEG, t[1]),
+                instruction(Opcode.MOV, t[1], t[2]),
+                instruction(Opcode.NOT, t[2]),
+                instruction(Opcode.MOV, t[2], t[3]),
+                instruction(Opcode.NEG, t[3]),
+                instruction(Opcode.MOV, t[3], t[0]));
+        Map<Register, PhysicalRegister> allocation = allocate(new PbqpAllocator(lines), lines);
+
+        for (VirtualRegister temp : t) {
+            assertEquals(EAX, allocation.get(temp), temp.toString());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package edu.kit.kastel.vads.compiler.backend.regalloc;
+
+import edu.kit.kastel.vads.compiler.backend.aasm.VirtualRegister;
+import edu.kit.kastel.vads.compiler.backend.mir.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RegisterRewriterTest {
+    private static final PhysicalRegister ECX = X86_64PhysicalRegisters.get(X86_64Register.RCX);
+
+    @Test
+    void leaOfConstantsBecomesMove() {
+        VirtualRegister base = new VirtualRegister(0);
+        VirtualRegister index = new VirtualRegister(1);
+        VirtualRegister target = new VirtualRegister(2);
+        MachineFunction function = function(new MachineInstruction(Opcode.LEA, new Address(base, index, 4, 1), target));
+
+        new RegisterRewriter(Map.of(target, ECX), Map.of(base, new Immediate(0), index, new Immediate(2)))
+                .rewrite(function);
+
+        assertEquals(List.of(new Immediate(9), ECX), function.entry().instructions().getFirst().operands());
+        assertEquals(Opcode.MOV, function.entry().instructions().getFirst().opcode());
+    }
+
+    @Test
+    void constantBaseFoldsIntoDisplacement() {
+        VirtualRegister base = new VirtualRegister(0);
+        VirtualRegister index = new VirtualRegister(1);
+        VirtualRegister target = new VirtualRegister(2);
+        PhysicalRegister edx = X86_64PhysicalRegisters.get(X86_64Register.RDX);
+        MachineFunction function = function(new MachineInstruction(Opcode.LEA, new Address(base, index, 2, 1), target));
+
+        new RegisterRewriter(Map.of(index, edx, target, ECX), Map.of(base, new Immediate(3))).rewrite(function);
+
+        MachineInstruction lea = function.entry().instructions().getFirst();
+        assertEquals(Opcode.LEA, lea.opcode());
+        assertEquals(new Address(null, edx, 2, 4), lea.operand(0));
+    }
+
+    private static MachineFunction function(MachineInstruction instruction) {
+        MachineFunction function = new MachineFunction("main");
+        MachineBasicBlock block = new MachineBasicBlock(new Label("main_start"));
+        block.append(instruction);
+        block.append(new MachineInstruction(Opcode.RET));
+        function.blocks().add(block);
+        return function;
+    }
+}
@@ -0,0 +1,94 @@
+package edu.kit.kastel.vads.compiler.backend.x86;
+
+import edu.kit.kastel.vads.compiler.Programs;
+import edu.kit.kastel.vads.compiler.backend.aasm.CodeGenerator;
+import edu.kit.kastel.vads.compiler.backend.mir.MachineFunction;
+import edu.kit.kastel.vads.compiler.backend.regalloc.AllocationStrategy;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/// Compares the built-in encoding with the one GNU as produces from the emitted assembly, so that the
+/// [X86_64Encoder] and the [edu.kit.kastel.vads.compiler.backend.aasm.AssemblyEmitter] can't drift apart.
+class X86_64EncoderTest {
+    private static final List<String> PROGRAMS = List.of(
+            """
+            int main() {
+              int x = 1 << 12;
+              int y = x / 7 % 5;
+              bool b = x > y && !(y == 3);
+              return b ? x + y * 8 + 3 : -x >> 2;
+            }
+            """,
+            """
+            int main() {
+              int sum = 0;
+              int i = 0;
+              while (i < 100 && sum <= 100000) {
+                if (i % 3 != 0) {
+                  sum += i * 4 + sum << (i & 7);
+                }
+                i += 1;
+              }
+              return sum ^ ~sum | 0x7FFFFFFF;
+            }
+            """,
+            Programs.manyValues(24));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void encodingMatchesAssembler() throws IOException, InterruptedException {
+        assumeTrue(available("as") && available("objcopy"), "GNU binutils are not installed");
+        for (AllocationStrategy strategy : AllocationStrategy.values()) {
+            for (String program : PROGRAMS) {
+                List<MachineFunction> functions = Programs.functions(program, strategy);
+                byte[] expected = assemble(functions);
+                byte[] actual = new X86_64Encoder().encode(functions).bytes();
+                // as leaves the call of the global _main in the entry stub to the linker
+                Arrays.fill(actual, 1, 5, (byte) 0);
+                assertArrayEquals(expected, actual, strategy + " encodes differently:\n" + program);
+            }
+        }
+    }
+
+    private byte[] assemble(List<MachineFunction> functions) throws IOException, InterruptedException {
+        Path assembly = this.directory.resolve("program.s");
+        Path object = this.directory.resolve("program.o");
+        Path text = this.directory.resolve("program.bin");
+        try (Writer writer = Files.newBufferedWriter(assembly)) {
+            new CodeGenerator().emitAssembly(functions, writer);
+        }
+        assertEquals(0, run("as", assembly.toString(), "-o", object.toString()), "as rejects the assembly");
+        assertEquals(0, run("objcopy", "-O", "binary", "-j", ".text", object.toString(), text.toString()));
+        return Files.readAllBytes(text);
+    }
+
+    private static boolean available(String tool) {
+        try {
+            return run(tool, "--version") == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    private static int run(String... command) throws IOException, InterruptedException {
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start()
+                .waitFor();
+    }
+}
@@ -0,0 +1,126 @@
+package edu.kit.kastel.vads.compiler.ir.interpret;
+
+import edu.kit.kastel.vads.compiler.Programs;
+import edu.kit.kastel.vads.compiler.backend.regalloc.AllocationStrategy;
+import edu.kit.kastel.vads.compiler.backend.x86.NativeRunner;
+import edu.kit.kastel.vads.compiler.ir.IrGraph;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/// The interpreter must report the same exit status as the compiled program.
+class IrInterpreterTest {
+    private static final int TRAPPED = 128 + IrInterpreter.SIGFPE;
+
+    @Test
+    void overflowingDivisionTraps() throws IOException, InterruptedException {
+        assertSameStatus(TRAPPED, """
+                int main() {
+                  int min = -2147483648;
+                  int divisor = -1;
+                  return min / divisor;
+                }
+                """);
+        assertSameStatus(TRAPPED, """
+                int main() {
+                  int min = -2147483647 - 1;
+                  int divisor = 0 - 1;
+                  return min % divisor;
+                }
+                """);
+    }
+
+    @Test
+    void divisionByZeroTraps() throws IOException, InterruptedException {
+        assertSameStatus(TRAPPED, """
+                int main() {
+                  int x = 5;
+                  int y = x - 5;
+                  return x % y;
+                }
+                """);
+    }
+
+    @Test
+    void trapOnlyWhenDivisionIsReached() throws IOException, InterruptedException {
+        assertSameStatus(3, """
+                int main() {
+                  int y = 0;
+                  if (y != 0) {
+                    return 1 / y;
+                  }
+                  return 3;
+                }
+                """);
+    }
+
+    @Test
+    void shiftCountsAreMasked() throws IOException, InterruptedException {
+        // 33 & 31 == 1, 63 & 31 == 31, 32 & 31 == 0
+        assertSameStatus((2 + 1 + 96) & 0xFF, """
+                int main() {
+                  int one = 1;
+                  int x = -96;
+                  int big = 33;
+                  return (one << big) + (x >> 63) * -1 + (-x >> 32);
+                }
+                """);
+        assertSameStatus(2 + 255 - 3, """
+                int main() {
+                  return (1 << 33) + (-2 >> 63) + (-96 >> 37);
+                }
+                """);
+    }
+
+    @Test
+    void logicalOperatorsOnComparisons() throws IOException, InterruptedException {
+        assertSameStatus(0b1010, """
+                int main() {
+                  int a = 3;
+                  int b = 0;
+                  bool x = a > 2 && b == 0;
+                  bool y = a < 2 && b == 0;
+                  bool z = a < 2 || b == 0;
+                  bool w = a < 2 || b != 0;
+                  return (x ? 8 : 0) | (y ? 4 : 0) | (z ? 2 : 0) | (w ? 1 : 0);
+                }
+                """);
+        assertSameStatus(6, """
+                int main() {
+                  int count = 0;
+                  for (int i = 0; i < 10; i += 1) {
+                    if (i % 2 == 0 && i > 2 || i == 1) {
+                      count += 1;
+                    }
+                  }
+                  return count + 2;
+                }
+                """);
+    }
+
+    @Test
+    void resultIsTruncatedToAByte() throws IOException, InterruptedException {
+        assertSameStatus(300 & 0xFF, "int main() { int x = 300; return x; }");
+        assertSameStatus(-1 & 0xFF, "int main() { int x = 1; return -x; }");
+    }
+
+    @Test
+    void jumpLimitStopsEndlessLoops() {
+        IrGraph main = Programs.graphs("int main() { int x = 0; while (true) { x += 1; } return x; }").getFirst();
+        IrInterpreter.Outcome outcome = new IrInterpreter(main).run(1000);
+        assertInstanceOf(IrInterpreter.Outcome.Unfinished.class, outcome);
+        assertThrows(IllegalStateException.class, outcome::exitStatus);
+    }
+
+    private static void assertSameStatus(int expected, String source) throws IOException, InterruptedException {
+        IrGraph main = Programs.graphs(source).getFirst();
+        assertEquals(expected, new IrInterpreter(main).run().exitStatus(), "interpreted");
+        int compiled = new NativeRunner().run(Programs.functions(source, AllocationStrategy.CHORDAL));
+        assertEquals(expected, compiled, "compiled");
+    }
+}
@@ -0,0 +1,97 @@
+package edu.kit.kastel.vads.compiler.lexer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LexerTest {
+    @Test
+    void compoundShiftAssignments() {
+        assertTokens("x <<= 2 >>= y",
+                "Identifier x", "Operator <<=", "NumberLiteral 2", "Operator >>=", "Identifier y");
+        // the longest operator wins, without spaces as well
+        assertTokens("a<<b>>c<=d>=e<<=f",
+                "Identifier a", "Operator <<", "Identifier b", "Operator >>", "Identifier c", "Operator <=",
+                "Identifier d", "Operator >=", "Identifier e", "Operator <<=", "Identifier f");
+        assertTokens("<<==", "Operator <<=", "Operator =");
+    }
+
+    @Test
+    void hexadecimalLiterals() {
+        assertTokens("0x1F 0XaB 0x0", "NumberLiteral 0x1F", "NumberLiteral 0XaB", "NumberLiteral 0x0");
+        assertEquals(16, ((NumberLiteral) Lexer.forString("0xff").nextToken().orElseThrow()).base());
+    }
+
+    @Test
+    void hexadecimalPrefixWithoutDigits() {
+        assertTokens("0x", "ErrorToken 0x");
+        assertTokens("0x;", "ErrorToken 0x", "Separator ;");
+        assertTokens("0xg", "ErrorToken 0x", "Identifier g");
+    }
+
+    @Test
+    void leadingZeros() {
+        assertTokens("0 007 10 0", "NumberLiteral 0", "ErrorToken 007", "NumberLiteral 10", "NumberLiteral 0");
+        assertEquals(10, ((NumberLiteral) Lexer.forString("10").nextToken().orElseThrow()).base());
+    }
+
+    @Test
+    void keywordPrefixIsAnIdentifier() {
+        assertTokens("intx int x_int returns return", "Identifier intx", "Keyword int", "Identifier x_int",
+                "Identifier returns", "Keyword return");
+        assertTokens("true truex false", "BooleanLiteral true", "Identifier truex", "BooleanLiteral false");
+    }
+
+    @Test
+    void comments() {
+        assertTokens("a // b\nc", "Identifier a", "Identifier c");
+        assertTokens("a /* b\n c */ d", "Identifier a", "Identifier d");
+        assertTokens("a /* b /* c */ d */ e", "Identifier a", "Identifier e");
+        assertTokens("a /* // */ b", "Identifier a", "Identifier b");
+        assertTokens("a // /* \n b", "Identifier a", "Identifier b");
+    }
+
+    @Test
+    void unterminatedComments() {
+        assertTokens("a /* b", "Identifier a", "ErrorToken /* b");
+        // the comment still open at the end is reported
+        assertTokens("a /* b /* c */ d", "Identifier a", "ErrorToken /* c */ d");
+    }
+
+    @Test
+    void invalidCharacters() {
+        assertTokens("a @ b#$", "Identifier a", "ErrorToken @", "Identifier b", "ErrorToken #", "ErrorToken $");
+        assertTokens("xé", "Identifier x", "ErrorToken é");
+    }
+
+    @Test
+    void spansCoverTheToken() {
+        Lexer lexer = Lexer.forString("int\n  x1 = 0x2;");
+        List<int[]> offsets = new ArrayList<>();
+        while (lexer.scan() != TokenKind.END) {
+            offsets.add(new int[]{lexer.tokenStart(), lexer.tokenEnd()});
+        }
+        assertEquals(List.of("0-3", "6-8", "9-10", "11-14", "14-15"),
+                offsets.stream().map(offset -> offset[0] + "-" + offset[1]).toList());
+
+        Lexer positions = Lexer.forString("int\n  x1");
+        positions.nextToken();
+        Token x = positions.nextToken().orElseThrow();
+        // lines and columns count from 0
+        assertEquals(1, x.span().start().line());
+        assertEquals(2, x.span().start().column());
+    }
+
+    private static void assertTokens(String source, String... expected) {
+        Lexer lexer = Lexer.forString(source);
+        List<String> tokens = new ArrayList<>();
+        for (Optional<Token> token = lexer.nextToken(); token.isPresent(); token = lexer.nextToken()) {
+            tokens.add(token.get().getClass().getSimpleName() + " " + token.get().asString());
+        }
+        assertEquals(List.of(expected), tokens);
+    }
+}
@@ -0,0 +1,86 @@
+package edu.kit.kastel.vads.compiler.parser;
+
+import edu.kit.kastel.vads.compiler.lexer.ErrorToken;
+import edu.kit.kastel.vads.compiler.lexer.KeywordType;
+import edu.kit.kastel.vads.compiler.lexer.Lexer;
+import edu.kit.kastel.vads.compiler.lexer.Operator.OperatorType;
+import edu.kit.kastel.vads.compiler.lexer.Separator.SeparatorType;
+import edu.kit.kastel.vads.compiler.lexer.Token;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenSourceTest {
+    @Test
+    void consumesTheTokensOfTheLexer() {
+        String source = "int x = 0x1F; x <<= 3 >>= y; /* c */ return intx;";
+        Lexer lexer = Lexer.forString(source);
+        List<String> expected = new ArrayList<>();
+        for (Optional<Token> token = lexer.nextToken(); token.isPresent(); token = lexer.nextToken()) {
+            expected.add(token.get().asString() + " " + token.get().span());
+        }
+        TokenSource tokens = new TokenSource(Lexer.forString(source));
+        List<String> actual = new ArrayList<>();
+        while (tokens.hasMore()) {
+            Token token = tokens.consume();
+            actual.add(token.asString() + " " + token.span());
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void peekDoesNotAdvance() {
+        TokenSource tokens = new TokenSource(Lexer.forString("x y"));
+        Token peeked = tokens.peek();
+        assertSame(peeked, tokens.peek());
+        assertSame(peeked, tokens.expectIdentifier());
+        assertEquals("y", tokens.expectIdentifier().value());
+        assertFalse(tokens.hasMore());
+    }
+
+    @Test
+    void endOfInputIsAnError() {
+        TokenSource tokens = new TokenSource(Lexer.forString("int x"));
+        tokens.expectKeyword(KeywordType.INT);
+        tokens.expectIdentifier();
+        ParseException exception = assertThrows(ParseException.class,
+                () -> tokens.expectSeparator(SeparatorType.SEMICOLON));
+        assertEquals("reached end of file", exception.getMessage());
+        assertThrows(ParseException.class, tokens::peek);
+        assertThrows(ParseException.class, tokens::consume);
+    }
+
+    @Test
+    void endOfInputAfterCommentIsAnError() {
+        TokenSource tokens = new TokenSource(Lexer.forString("  // only a comment\n"));
+        assertFalse(tokens.hasMore());
+        assertThrows(ParseException.class, tokens::expectIdentifier);
+    }
+
+    @Test
+    void unexpectedTokenIsNotConsumed() {
+        TokenSource tokens = new TokenSource(Lexer.forString("<<= @"));
+        assertThrows(ParseException.class, () -> tokens.expectOperator(OperatorType.BIT_SHIFT_LEFT));
+        tokens.expectOperator(OperatorType.ASSIGN_BIT_SHIFT_LEFT);
+        assertInstanceOf(ErrorToken.class, tokens.consume());
+        assertFalse(tokens.hasMore());
+    }
+
+    @Test
+    void lexesOnlyUpToTheLookahead() {
+        // a parse error is reported before the rest of the input is scanned
+        Lexer lexer = Lexer.forString("x y z");
+        TokenSource tokens = new TokenSource(lexer);
+        tokens.peek();
+        assertEquals(1, lexer.tokenEnd());
+        tokens.consume();
+        assertEquals(1, lexer.tokenEnd());
+        tokens.peek();
+        assertEquals(3, lexer.tokenEnd());
+    }
+}